@@ -4,9 +4,15 @@ import client.GUI.GameRoomController;
 import client.GUI.LoginController;
 import client.GUI.RegisterController;
 import client.GUI.MainController;
+import common.BinaryMessageCodec;
+import common.Frames;
 import common.Match;
 import common.MatchDetails;
 import common.Message;
+import common.PresenceUpdate;
+import common.MessageCodec;
+import common.Protocol;
+import common.RoundResult;
 import common.User;
 import javafx.application.Platform;
 import javafx.fxml.FXMLLoader;
@@ -15,18 +21,27 @@ import javafx.scene.Scene;
 import javafx.stage.Stage;
 import javafx.scene.control.Alert;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.net.Socket;
+import java.util.Arrays;
 import java.net.URL;
 import java.util.List;
 
 public class Client {
 
     private Socket socket;
-    private ObjectOutputStream out;
-    private ObjectInputStream in;
+    private DataOutputStream out;
+    private DataInputStream in;
+    private MessageCodec codec;
+    // Chỉ dùng khi server là bản cũ: stream Java serialization không có khung
+    private ObjectOutputStream legacyOut;
+    private ObjectInputStream legacyIn;
     private User user;
     private Stage primaryStage;
 
@@ -54,10 +69,13 @@ public class Client {
 
     public void startConnection(String address, int port) {
         try {
-            socket = new Socket(address, port);
-            in = new ObjectInputStream(socket.getInputStream());
-            out = new ObjectOutputStream(socket.getOutputStream());
-            out.flush();
+            openSocket(address, port, new BinaryMessageCodec());
+            if (!negotiateBinaryProtocol()) {
+                // Server cũ chưa hỗ trợ giao thức nhị phân: kết nối lại bằng Java serialization
+                System.out.println("Server không hỗ trợ giao thức nhị phân, dùng Java serialization.");
+                socket.close();
+                openLegacySocket(address, port);
+            }
             isRunning = true;
             listenForMessages();
         } catch (IOException e) {
@@ -66,16 +84,73 @@ public class Client {
         }
     }
 
+    private void openSocket(String address, int port, MessageCodec codec) throws IOException {
+        socket = new Socket(address, port);
+        in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        this.codec = codec;
+        legacyIn = null;
+        legacyOut = null;
+        // Server (cả bản cũ) gửi header stream Java serialization ngay khi nhận kết nối
+        byte[] header = new byte[Protocol.STREAM_HEADER.length];
+        socket.setSoTimeout(5000);
+        in.readFully(header);
+        socket.setSoTimeout(0);
+        if (!Arrays.equals(header, Protocol.STREAM_HEADER)) {
+            throw new IOException("Server gửi header không hợp lệ");
+        }
+    }
+
+    // Giống client cũ: tạo ObjectInputStream trước (đọc header của server) rồi mới tới ObjectOutputStream
+    private void openLegacySocket(String address, int port) throws IOException {
+        socket = new Socket(address, port);
+        legacyIn = new ObjectInputStream(socket.getInputStream());
+        legacyOut = new ObjectOutputStream(socket.getOutputStream());
+        legacyOut.flush();
+        in = null;
+        out = null;
+        codec = null;
+    }
+
+    private Message readMessage() throws IOException {
+        if (legacyIn == null) {
+            return codec.decode(Frames.read(in));
+        }
+        try {
+            return (Message) legacyIn.readObject();
+        } catch (ClassNotFoundException | ClassCastException e) {
+            throw new IOException("Dữ liệu không hợp lệ từ server", e);
+        }
+    }
+
+    // Gửi HELLO và chờ server xác nhận trước khi gửi bất kỳ tin nhắn nào khác
+    private boolean negotiateBinaryProtocol() throws IOException {
+        socket.setSoTimeout(5000);
+        try {
+            Frames.write(out, Protocol.hello());
+            out.flush();
+            Message reply = codec.decode(Frames.read(in));
+            return Protocol.HELLO.equals(reply.getType());
+        } catch (IOException e) {
+            // Hết thời gian chờ, hoặc server cũ đóng kết nối vì không đọc được frame HELLO
+            return false;
+        } finally {
+            if (!socket.isClosed()) {
+                socket.setSoTimeout(0);
+            }
+        }
+    }
+
     private void listenForMessages() {
         new Thread(() -> {
             try {
                 while (isRunning) {
-                    Message message = (Message) in.readObject();
+                    Message message = readMessage();
                     if (message != null) {
                         handleMessage(message);
                     }
                 }
-            } catch (IOException | ClassNotFoundException ex) {
+            } catch (IOException ex) {
                 if (isRunning) {
                     ex.printStackTrace();
                     try {
@@ -138,6 +213,14 @@ public class Client {
                 break;
             // ===== KẾT THÚC XỬ LÝ ĐĂNG KÝ =====
                 
+            case "user_search_result":
+                Object[] searchResult = (Object[]) message.getContent();
+                Platform.runLater(() -> {
+                    if (mainController != null) {
+                        mainController.updateSearchResults(searchResult);
+                    }
+                });
+                break;
             case "user_list":
                 List<User> users = (List<User>) message.getContent();
                 Platform.runLater(() -> {
@@ -153,6 +236,14 @@ public class Client {
                     }
                 });
                 break;
+            case "presence_delta":
+                List<PresenceUpdate> delta = (List<PresenceUpdate>) message.getContent();
+                Platform.runLater(() -> {
+                    if (mainController != null) {
+                        mainController.applyPresence(delta);
+                    }
+                });
+                break;
             case "match_request":
                 Platform.runLater(() -> {
                     if (mainController != null) {
@@ -174,6 +265,16 @@ public class Client {
                     }
                 });
                 break;
+            case "chat_history":
+                String[] lines = (String[]) message.getContent();
+                Platform.runLater(() -> {
+                    if (gameRoomController != null) {
+                        for (String line : lines) {
+                            gameRoomController.updateChat(line);
+                        }
+                    }
+                });
+                break;
             case "match_start":
                 Platform.runLater(() -> {
                     showGameRoomUI((String) message.getContent());
@@ -221,7 +322,12 @@ public class Client {
             case "round_result":
                 Platform.runLater(() -> {
                     if (gameRoomController != null) {
-                        gameRoomController.showRoundResult((String) message.getContent());
+                        if (message.getContent() instanceof RoundResult) {
+                            // Một frame cho cả hoạt ảnh và bảng tỷ số
+                            gameRoomController.applyRoundResult((RoundResult) message.getContent());
+                        } else {
+                            gameRoomController.showRoundResult((String) message.getContent());
+                        }
                     }
                 });
                 break;
@@ -255,6 +361,33 @@ public class Client {
                 });
                 break;
 
+            case "leaderboard_page":
+                Object[] page = (Object[]) message.getContent();
+                Platform.runLater(() -> {
+                    if (mainController != null) {
+                        mainController.updateLeaderboardPage(page);
+                    }
+                });
+                break;
+
+            case "user_matches_page":
+                Object[] matchesPage = (Object[]) message.getContent();
+                Platform.runLater(() -> {
+                    if (mainController != null) {
+                        mainController.updateMatchesPage(matchesPage);
+                    }
+                });
+                break;
+
+            case "match_history_page":
+                Object[] historyPage = (Object[]) message.getContent();
+                Platform.runLater(() -> {
+                    if (mainController != null) {
+                        mainController.updateMatchHistoryPage(historyPage);
+                    }
+                });
+                break;
+
             case "match_history":
                 List<MatchDetails> history = (List<MatchDetails>) message.getContent();
                 Platform.runLater(() -> {
@@ -332,6 +465,12 @@ public class Client {
                 });
                 break;
                 
+            case "turn_deadline":
+                Object[] deadline = (Object[]) message.getContent();
+                if (gameRoomController != null) {
+                    gameRoomController.syncTurnDeadline((long) deadline[0], (long) deadline[1]);
+                }
+                break;
             case "timeout":
                 Platform.runLater(() -> {
                     if (gameRoomController != null) {
@@ -349,8 +488,13 @@ public class Client {
         }
     }
 
-    public void sendMessage(Message message) throws IOException {
-        out.writeObject(message);
+    public synchronized void sendMessage(Message message) throws IOException {
+        if (legacyOut != null) {
+            legacyOut.writeObject(message);
+            legacyOut.flush();
+            return;
+        }
+        Frames.write(out, codec.encode(message));
         out.flush();
     }
 
@@ -463,6 +607,15 @@ public class Client {
     public User getUser() {
         return user;
     }
+
+    public MainController getMainController() {
+        return mainController;
+    }
+
+    // Server bản cũ: không có tìm kiếm phía server, phải tải cả danh sách người chơi
+    public boolean isLegacyServer() {
+        return legacyOut != null;
+    }
     
     
 
@@ -474,6 +627,12 @@ public class Client {
         if (out != null) {
             out.close();
         }
+        if (legacyIn != null) {
+            legacyIn.close();
+        }
+        if (legacyOut != null) {
+            legacyOut.close();
+        }
         if (socket != null && !socket.isClosed()) {
             socket.close();
         }
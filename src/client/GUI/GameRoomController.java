@@ -2,6 +2,7 @@ package client.GUI;
 
 import client.Client;
 import common.Message;
+import common.RoundResult;
 import java.io.File;
 import java.io.IOException;
 import java.util.Optional;
@@ -67,6 +68,8 @@ public class GameRoomController {
     private AudioClip mu;
     private Timeline countdownTimeline;
     private int timeRemaining; // Thời gian còn lại cho lượt
+    // Thời điểm hết lượt theo đồng hồ máy này, đồng bộ từ hạn do server gửi
+    private long turnDeadline;
 
     private static final int TURN_TIMEOUT = 15;
 
@@ -84,6 +87,16 @@ public class GameRoomController {
         });
     }
 
+    // Kết quả lượt sút từ server: chạy hoạt ảnh rồi cập nhật tỷ số
+    public void applyRoundResult(RoundResult result) {
+        if (result.isGoal()) {
+            animateShootVao(result.getShotDirection(), result.getSaveDirection());
+        } else {
+            animateShootKhongVao(result.getShotDirection(), result.getSaveDirection());
+        }
+        updateScore(new int[] { result.getYourScore(), result.getOpponentScore(), result.getRound() });
+    }
+
     public void setClient(Client client) {
         this.client = client;
     }
@@ -805,7 +818,21 @@ public class GameRoomController {
         });
     }
 
+    // Server gửi hạn lượt kèm giờ của server; quy đổi sang đồng hồ máy này để không phụ thuộc lệch giờ
+    public void syncTurnDeadline(long deadline, long serverNow) {
+        Platform.runLater(() -> {
+            turnDeadline = System.currentTimeMillis() + (deadline - serverNow);
+            timeRemaining = secondsUntilDeadline();
+        });
+    }
+
+    private int secondsUntilDeadline() {
+        return (int) Math.ceil((turnDeadline - System.currentTimeMillis()) / 1000.0);
+    }
+
+    // Đồng hồ chỉ để hiển thị: khi hết giờ, server tự chọn nước mặc định và báo lại
     private void startCountdown(int durationInSeconds) {
+        turnDeadline = System.currentTimeMillis() + durationInSeconds * 1000L;
         timeRemaining = durationInSeconds;
 
         if (countdownTimeline != null) {
@@ -833,33 +860,22 @@ public class GameRoomController {
                 }
             }
 
-            timerLabel.setText(action + timeRemaining + " giây");
-            timeRemaining--;
+            timeRemaining = secondsUntilDeadline();
+            timerLabel.setText(action + Math.max(0, timeRemaining) + " giây");
 
-            if (timeRemaining < 0) {
+            if (timeRemaining <= 0) {
                 countdownTimeline.stop();
                 dialog.close();
                 timerLabel.setText(action + "0 giây");
+                timeRemaining = -1;
                 // Vô hiệu hóa các nút hành động khi hết thời gian
                 shootButton.setDisable(true);
                 goalkeeperButton.setDisable(true);
-                if (yourRole.equals("Shooter")) {
-                    try {
-                        client.sendMessage(new Message("timeout", "shooter"));
-                    } catch (IOException ex) {
-                        Logger.getLogger(GameRoomController.class.getName()).log(Level.SEVERE, null, ex);
-                    }
-                } else if (yourRole.equals("Goalkeeper")) {
-                    try {
-                        client.sendMessage(new Message("timeout", "goalkeeper"));
-                    } catch (IOException ex) {
-                        Logger.getLogger(GameRoomController.class.getName()).log(Level.SEVERE, null, ex);
-                    }
-                }
                 isMyTurn = false;
             }
         }));
-        countdownTimeline.setCycleCount(durationInSeconds + 1); // Bao gồm cả 0 giây
+        // Chạy tới khi hết hạn; hạn có thể được server dời lại qua syncTurnDeadline
+        countdownTimeline.setCycleCount(Timeline.INDEFINITE);
         countdownTimeline.play();
 
         // Cập nhật timerLabel lần đầu tiên
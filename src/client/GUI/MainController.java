@@ -4,6 +4,7 @@ import client.Client;
 import common.Match;
 import common.MatchDetails;
 import common.Message;
+import common.PresenceUpdate;
 import common.User;
 import javafx.beans.property.SimpleStringProperty;
 import javafx.collections.FXCollections;
@@ -15,12 +16,20 @@ import javafx.scene.paint.Color;
 import javafx.scene.shape.Circle;
 
 import java.io.IOException;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javafx.scene.control.cell.PropertyValueFactory;
 import java.sql.Timestamp;
 import javafx.application.Platform;
+import javafx.animation.KeyFrame;
+import javafx.animation.Timeline;
+import javafx.scene.control.skin.VirtualFlow;
+import javafx.util.Duration;
 
 public class MainController {
 
@@ -45,6 +54,27 @@ public class MainController {
 
     private Client client;
     private ObservableList<User> usersList = FXCollections.observableArrayList();
+    // Phiên bản presence mới nhất đã áp dụng cho từng người chơi
+    private final Map<Integer, Long> presenceVersions = new HashMap<>();
+
+    // Tập người chơi quan tâm đã khai báo với server
+    private static final int INTEREST_REFRESH_MILLIS = 500;
+    private static final int INTEREST_PAGE = 50;
+    private static final int INTEREST_LEADERBOARD_TOP = 10;
+    private static final int LEADERBOARD_PAGE_SIZE = 50;
+    // Danh sách trận tải theo trang; trang sau được tải khi cuộn tới cuối bảng
+    private static final int MATCHES_PAGE_SIZE = 30;
+    private int nextMatchesCursor;
+    private boolean matchesLoading;
+    // Danh sách người chơi do server tìm và chia trang (tiền tố rỗng = mọi người), client không tải
+    // cả danh sách; searchFilter == null chỉ khi nối với server bản cũ và bảng đang hiện usersList
+    private static final int SEARCH_PAGE_SIZE = 50;
+    private String searchPrefix;
+    private String searchFilter;
+    private String nextSearchCursor;
+    private boolean searchLoading;
+    private Timeline interestTimeline;
+    private Set<Integer> lastInterest;
 
     @FXML
     private TableView<User> leaderboardTable;
@@ -75,30 +105,135 @@ public class MainController {
 
     public void setClient(Client client) throws IOException {
         this.client = client;
-        loadUsers();
+        if (client.isLegacyServer()) {
+            loadUsers();
+        } else {
+            requestSearch("", "all", null);
+        }
         loadLeaderboard();
         loadUserMatches(); // Tải danh sách trận đấu
+        startInterestTracking();
+    }
+
+    // Định kỳ khai báo với server những người chơi đang hiển thị, chỉ gửi khi tập này thay đổi
+    private void startInterestTracking() {
+        interestTimeline = new Timeline(new KeyFrame(Duration.millis(INTEREST_REFRESH_MILLIS), e -> {
+            if (client.getMainController() != this) {
+                // Màn hình chính đã được tạo lại, controller này không còn hiển thị
+                interestTimeline.stop();
+                return;
+            }
+            sendInterestIfChanged();
+            loadMoreMatchesIfNeeded();
+            loadMoreSearchResultsIfNeeded();
+        }));
+        interestTimeline.setCycleCount(Timeline.INDEFINITE);
+        interestTimeline.play();
+    }
+
+    private void sendInterestIfChanged() {
+        Set<Integer> interest = new LinkedHashSet<>();
+        // Các dòng đang thấy trong bảng người chơi (thêm một trang trước và sau để cuộn mượt)
+        List<User> rows = usersTable.getItems();
+        int first = 0;
+        int last = Math.min(rows.size(), INTEREST_PAGE) - 1;
+        VirtualFlow<?> flow = (VirtualFlow<?>) usersTable.lookup(".virtual-flow");
+        if (flow != null && flow.getFirstVisibleCell() != null && flow.getLastVisibleCell() != null) {
+            first = flow.getFirstVisibleCell().getIndex();
+            last = flow.getLastVisibleCell().getIndex();
+            int page = last - first + 1;
+            first = Math.max(0, first - page);
+            last = Math.min(rows.size() - 1, last + page);
+        }
+        for (int i = first; i <= last && i < rows.size(); i++) {
+            interest.add(rows.get(i).getId());
+        }
+        // Đối thủ gần đây
+        if (matchesTable.getItems() != null) {
+            for (Match match : matchesTable.getItems()) {
+                interest.add(match.getPlayer1Id());
+                interest.add(match.getPlayer2Id());
+            }
+        }
+        // Đầu bảng xếp hạng
+        if (leaderboardTable.getItems() != null) {
+            List<User> top = leaderboardTable.getItems();
+            for (int i = 0; i < top.size() && i < INTEREST_LEADERBOARD_TOP; i++) {
+                interest.add(top.get(i).getId());
+            }
+        }
+        if (client.getUser() != null) {
+            interest.remove(client.getUser().getId());
+        }
+        if (interest.equals(lastInterest)) {
+            return;
+        }
+        lastInterest = interest;
+        int[] ids = new int[interest.size()];
+        int i = 0;
+        for (Integer id : interest) {
+            ids[i++] = id;
+        }
+        try {
+            client.sendMessage(new Message("presence_interest", ids));
+        } catch (IOException ex) {
+            Logger.getLogger(MainController.class.getName()).log(Level.SEVERE, null, ex);
+        }
     }
 
     private void loadUserMatches() throws IOException {
-        Message request = new Message("get_user_matches", null);
+        requestMatchesPage(0);
+    }
+
+    private void requestMatchesPage(int cursor) throws IOException {
+        matchesLoading = true;
+        Message request = new Message("get_user_matches", new int[] { cursor, MATCHES_PAGE_SIZE });
         client.sendMessage(request);
     }
 
+    private void loadMoreMatchesIfNeeded() {
+        if (matchesLoading || nextMatchesCursor == 0 || matchesTable.getItems() == null) {
+            return;
+        }
+        VirtualFlow<?> flow = (VirtualFlow<?>) matchesTable.lookup(".virtual-flow");
+        if (flow == null || flow.getLastVisibleCell() == null
+                || flow.getLastVisibleCell().getIndex() < matchesTable.getItems().size() - 1) {
+            return;
+        }
+        try {
+            requestMatchesPage(nextMatchesCursor);
+        } catch (IOException ex) {
+            matchesLoading = false;
+            Logger.getLogger(MainController.class.getName()).log(Level.SEVERE, null, ex);
+        }
+    }
+
     // Thêm phương thức để cập nhật bảng xếp hạng
     public void updateLeaderboard(List<User> leaderboard) {
         ObservableList<User> leaderboardList = FXCollections.observableArrayList(leaderboard);
         leaderboardTable.setItems(leaderboardList);
     }
 
+    // page = { hạng dòng đầu, tổng số người chơi, hạng của mình, List<User> }
+    @SuppressWarnings("unchecked")
+    public void updateLeaderboardPage(Object[] page) {
+        updateLeaderboard((List<User>) page[3]);
+        int myRank = (int) page[2];
+        if (myRank > 0) {
+            leaderboardTable.setTooltip(new Tooltip("Hạng của bạn: " + myRank + "/" + page[1]));
+        }
+    }
+
+    // Chỉ dùng với server bản cũ, trả về user_list gồm mọi người chơi
     private void loadUsers() throws IOException {
-        // Gửi yêu cầu lấy danh sách người chơi
-        Message request = new Message("get_users", null);
-        client.sendMessage(request);
+        client.sendMessage(new Message("get_users", null));
     }
 
     @FXML
     private void handleLogout() throws IOException {
+        if (interestTimeline != null) {
+            interestTimeline.stop();
+        }
         client.getUser().setStatus("offline");
         // Gửi yêu cầu đăng xuất
         if (client.getUser() != null) {
@@ -110,18 +245,31 @@ public class MainController {
 
     @FXML
     private void handleFilterOnline() {
-        ObservableList<User> filtered = FXCollections.observableArrayList();
-        for (User user : usersList) {
-            if (user.getStatus().equalsIgnoreCase("online")) {
-                filtered.add(user);
+        if (client.isLegacyServer()) {
+            ObservableList<User> filtered = FXCollections.observableArrayList();
+            for (User user : usersList) {
+                if (user.getStatus().equalsIgnoreCase("online")) {
+                    filtered.add(user);
+                }
             }
+            usersTable.setItems(filtered);
+            return;
         }
-        usersTable.setItems(filtered);
+        requestSearch(searchField.getText().trim(), "online", null);
     }
 
     @FXML
     private void handleSearch() {
-        String keyword = searchField.getText().toLowerCase();
+        String keyword = searchField.getText().trim();
+        if (client.isLegacyServer()) {
+            searchLocally(keyword.toLowerCase());
+            return;
+        }
+        // Tiền tố rỗng: quay về danh sách mọi người chơi
+        requestSearch(keyword, "all", null);
+    }
+
+    private void searchLocally(String keyword) {
         if (keyword.isEmpty()) {
             usersTable.setItems(usersList);
             return;
@@ -135,11 +283,55 @@ public class MainController {
         usersTable.setItems(filtered);
     }
 
+    private void requestSearch(String prefix, String filter, String cursor) {
+        searchPrefix = prefix;
+        searchFilter = filter;
+        searchLoading = true;
+        try {
+            client.sendMessage(new Message("search_users", new Object[] { prefix, filter, cursor, SEARCH_PAGE_SIZE }));
+        } catch (IOException ex) {
+            searchLoading = false;
+            Logger.getLogger(MainController.class.getName()).log(Level.SEVERE, null, ex);
+        }
+    }
+
+    private void loadMoreSearchResultsIfNeeded() {
+        if (searchFilter == null || searchLoading || nextSearchCursor == null) {
+            return;
+        }
+        VirtualFlow<?> flow = (VirtualFlow<?>) usersTable.lookup(".virtual-flow");
+        if (flow == null || flow.getLastVisibleCell() == null
+                || flow.getLastVisibleCell().getIndex() < usersTable.getItems().size() - 1) {
+            return;
+        }
+        requestSearch(searchPrefix, searchFilter, nextSearchCursor);
+    }
+
+    // result = { tiền tố, bộ lọc, con trỏ đã yêu cầu (null = trang đầu), con trỏ trang sau, List<User> }
+    @SuppressWarnings("unchecked")
+    public void updateSearchResults(Object[] result) {
+        // Kết quả của lần tìm trước đó (người dùng đã tìm thứ khác)
+        if (!result[0].equals(searchPrefix) || !result[1].equals(searchFilter)) {
+            return;
+        }
+        List<User> users = (List<User>) result[4];
+        if (result[2] == null) {
+            usersTable.setItems(FXCollections.observableArrayList(users));
+        } else {
+            usersTable.getItems().addAll(users);
+        }
+        nextSearchCursor = (String) result[3];
+        searchLoading = false;
+    }
+
     // Cập nhật danh sách người chơi từ server
     public void updateUsersList(List<User> newUsers) {
         Platform.runLater(() -> {
             usersList.setAll(newUsers);
-            usersTable.setItems(usersList);
+            // Đang hiện kết quả tìm kiếm thì giữ nguyên bảng
+            if (searchFilter == null) {
+                usersTable.setItems(usersList);
+            }
             usersTable.refresh(); // Buộc bảng cập nhật lại
         });
     }
@@ -163,6 +355,38 @@ public class MainController {
         }
     }
 
+    // Áp dụng một frame presence_delta trong một lượt cập nhật bảng; bỏ qua thay đổi
+    // có phiên bản cũ hơn thay đổi đã áp dụng (hai frame có thể đến lệch thứ tự)
+    public void applyPresence(List<PresenceUpdate> delta) {
+        Map<Integer, PresenceUpdate> changes = new HashMap<>();
+        for (PresenceUpdate update : delta) {
+            Long applied = presenceVersions.get(update.getUserId());
+            if (applied == null || applied < update.getVersion()) {
+                presenceVersions.put(update.getUserId(), update.getVersion());
+                changes.put(update.getUserId(), update);
+            }
+        }
+        if (changes.isEmpty()) {
+            return;
+        }
+        for (User user : usersList) {
+            PresenceUpdate update = changes.get(user.getId());
+            if (update != null) {
+                user.setStatus(update.getStatus());
+            }
+        }
+        // Kết quả tìm kiếm là các đối tượng riêng, không nằm trong danh bạ
+        if (usersTable.getItems() != usersList) {
+            for (User user : usersTable.getItems()) {
+                PresenceUpdate update = changes.get(user.getId());
+                if (update != null) {
+                    user.setStatus(update.getStatus());
+                }
+            }
+        }
+        usersTable.refresh();
+    }
+
     // Hiển thị yêu cầu trận đấu
     public void showMatchRequest(int requesterId) {
         Alert alert = new Alert(Alert.AlertType.CONFIRMATION);
@@ -379,8 +603,22 @@ public class MainController {
         matchesTable.setItems(matchesList);
     }
 
+    // page = { con trỏ đã yêu cầu, con trỏ trang sau (0 = hết), List<Match> }
+    @SuppressWarnings("unchecked")
+    public void updateMatchesPage(Object[] page) {
+        List<Match> matches = (List<Match>) page[2];
+        if ((int) page[0] == 0 || matchesTable.getItems() == null) {
+            updateMatchesList(matches);
+        } else {
+            matchesTable.getItems().addAll(matches);
+        }
+        nextMatchesCursor = (int) page[1];
+        matchesLoading = false;
+    }
+
+    // Chỉ tải trang đầu của bảng xếp hạng, server giữ thứ hạng của mọi người chơi
     private void loadLeaderboard() throws IOException {
-        Message request = new Message("get_leaderboard", null);
+        Message request = new Message("get_leaderboard_page", new int[] { 0, LEADERBOARD_PAGE_SIZE });
         client.sendMessage(request);
     }
 
@@ -388,4 +626,15 @@ public class MainController {
         ObservableList<MatchDetails> historyList = FXCollections.observableArrayList(history);
         historyTable.setItems(historyList);
     }
+
+    // page = { con trỏ đã yêu cầu, con trỏ trang sau, List<MatchDetails> }
+    @SuppressWarnings("unchecked")
+    public void updateMatchHistoryPage(Object[] page) {
+        List<MatchDetails> history = (List<MatchDetails>) page[2];
+        if ((int) page[0] == 0 || historyTable.getItems() == null) {
+            updateMatchHistory(history);
+        } else {
+            historyTable.getItems().addAll(history);
+        }
+    }
 }
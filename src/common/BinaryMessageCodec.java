@@ -0,0 +1,507 @@
+package common;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Giao thức nhị phân gọn: [opcode][giá trị có tag]
+// Số nguyên dùng varint, nước đi dùng 1 byte (xem Moves), không dùng Java serialization.
+// Không giữ trạng thái nên một instance dùng chung được cho nhiều thread.
+public class BinaryMessageCodec implements MessageCodec {
+
+    // Chỉ thêm vào cuối danh sách, không đổi thứ tự (chỉ số = opcode)
+    private static final String[] TYPES = {
+        null, // 0: loại tin nhắn chưa có opcode, tên được gửi kèm
+        "login", "register", "get_users", "request_match", "match_response",
+        "chat", "logout", "shoot", "goalkeeper", "play_again_response",
+        "get_leaderboard", "get_match_history", "quit_game", "get_user_matches", "get_match_details",
+        "timeout", "return_to_main", "login_success", "login_failure", "register_success",
+        "register_failure", "user_list", "status_update", "match_request", "match_start",
+        "animate_shoot_vao", "animate_shoot_khong_vao", "kick_result", "round_result", "match_end",
+        "play_again_request", "rematch_declined", "leaderboard", "match_history", "user_matches",
+        "match_details", "update_score", "match_result", "your_turn", "goalkeeper_turn",
+        "opponent_turn", "opponent_timeout", "error", "logout_success", Protocol.HELLO,
+        "presence", "presence_delta", "presence_interest",
+        "chat_history", "turn_deadline",
+        "get_leaderboard_page", "get_leaderboard_around", "leaderboard_page",
+        "user_matches_page", "match_history_page",
+        "user_directory", "search_users", "user_search_result"
+    };
+
+    private static final Map<String, Integer> OPCODES = new HashMap<>();
+
+    static {
+        for (int i = 1; i < TYPES.length; i++) {
+            OPCODES.put(TYPES[i], i);
+        }
+    }
+
+    // Cùng giới hạn độ sâu với MessageInputStream của client cũ
+    public static final int MAX_DEPTH = MessageInputStream.MAX_DEPTH;
+
+    // Tag của giá trị
+    private static final int T_NULL = 0;
+    private static final int T_INT = 1;
+    private static final int T_BOOL = 2;
+    private static final int T_STRING = 3;
+    private static final int T_MOVE = 4;
+    private static final int T_STRING_ARRAY = 5;
+    private static final int T_INT_ARRAY = 6;
+    private static final int T_OBJECT_ARRAY = 7;
+    private static final int T_USER = 8;
+    private static final int T_MATCH = 9;
+    private static final int T_MATCH_DETAILS = 10;
+    private static final int T_LIST = 11;
+    private static final int T_LONG = 12;
+    private static final int T_PRESENCE = 13;
+    private static final int T_ROUND_RESULT = 14;
+
+    // Trạng thái người chơi hay gặp được mã hóa thành 1 byte
+    private static final String[] STATUSES = { null, "online", "ingame", "offline" };
+    private static final int STATUS_OTHER = STATUSES.length;
+
+    @Override
+    public byte[] encode(Message message) throws IOException {
+        Output out = new Output();
+        Integer opcode = OPCODES.get(message.getType());
+        if (opcode != null) {
+            out.write(opcode);
+        } else {
+            out.write(0);
+            out.writeString(message.getType());
+        }
+        writeValue(out, message.getContent());
+        return out.toByteArray();
+    }
+
+    @Override
+    public Message decode(byte[] frame) throws IOException {
+        ByteBuffer in = ByteBuffer.wrap(frame);
+        try {
+            int opcode = in.get() & 0xFF;
+            String type;
+            if (opcode == 0) {
+                type = readString(in);
+            } else if (opcode < TYPES.length) {
+                type = TYPES[opcode];
+            } else {
+                throw new IOException("Opcode không hợp lệ: " + opcode);
+            }
+            Object content = readValue(in, 1);
+            if (in.hasRemaining()) {
+                throw new IOException("Frame còn thừa " + in.remaining() + " byte");
+            }
+            return new Message(type, content);
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            throw new IOException("Frame nhị phân bị hỏng", e);
+        }
+    }
+
+    // ===== MÃ HÓA =====
+    private void writeValue(Output out, Object value) throws IOException {
+        if (value == null) {
+            out.write(T_NULL);
+        } else if (value instanceof Integer) {
+            out.write(T_INT);
+            out.writeVarInt((Integer) value);
+        } else if (value instanceof Long) {
+            out.write(T_LONG);
+            out.writeVarLong((Long) value);
+        } else if (value instanceof Boolean) {
+            out.write(T_BOOL);
+            out.write((Boolean) value ? 1 : 0);
+        } else if (value instanceof String) {
+            int move = Moves.encode((String) value);
+            if (move >= 0) {
+                out.write(T_MOVE);
+                out.write(move);
+            } else {
+                out.write(T_STRING);
+                out.writeString((String) value);
+            }
+        } else if (value instanceof String[]) {
+            String[] array = (String[]) value;
+            out.write(T_STRING_ARRAY);
+            out.writeVarInt(array.length);
+            for (String s : array) {
+                out.writeNullableString(s);
+            }
+        } else if (value instanceof int[]) {
+            // Tỷ số [điểm mình, điểm đối thủ, round] đi theo nhánh này
+            int[] array = (int[]) value;
+            out.write(T_INT_ARRAY);
+            out.writeVarInt(array.length);
+            for (int i : array) {
+                out.writeVarInt(i);
+            }
+        } else if (value instanceof Object[]) {
+            Object[] array = (Object[]) value;
+            out.write(T_OBJECT_ARRAY);
+            out.writeVarInt(array.length);
+            for (Object o : array) {
+                writeValue(out, o);
+            }
+        } else if (value instanceof User) {
+            out.write(T_USER);
+            writeUser(out, (User) value);
+        } else if (value instanceof Match) {
+            out.write(T_MATCH);
+            writeMatch(out, (Match) value);
+        } else if (value instanceof MatchDetails) {
+            out.write(T_MATCH_DETAILS);
+            writeMatchDetails(out, (MatchDetails) value);
+        } else if (value instanceof PresenceUpdate) {
+            PresenceUpdate update = (PresenceUpdate) value;
+            out.write(T_PRESENCE);
+            out.writeVarInt(update.getUserId());
+            out.writeString(update.getUsername());
+            writeStatus(out, update.getStatus());
+            out.writeVarLong(update.getVersion());
+        } else if (value instanceof RoundResult) {
+            // Hai mã nước đi, một byte cờ (bit 0: vào, bit 1: người nhận là người sút), tỷ số và lượt
+            RoundResult result = (RoundResult) value;
+            out.write(T_ROUND_RESULT);
+            out.write(result.getShot());
+            out.write(result.getSave());
+            out.write((result.isGoal() ? 1 : 0) | (result.isShooter() ? 2 : 0));
+            out.writeVarInt(result.getYourScore());
+            out.writeVarInt(result.getOpponentScore());
+            out.writeVarInt(result.getRound());
+        } else if (value instanceof List) {
+            List<?> list = (List<?>) value;
+            out.write(T_LIST);
+            out.writeVarInt(list.size());
+            for (Object o : list) {
+                writeValue(out, o);
+            }
+        } else {
+            throw new IOException("Không hỗ trợ mã hóa kiểu " + value.getClass().getName());
+        }
+    }
+
+    private void writeUser(Output out, User user) {
+        out.writeVarInt(user.getId());
+        out.writeString(user.getUsername());
+        out.writeVarInt(user.getPoints());
+        writeStatus(out, user.getStatus());
+    }
+
+    private void writeStatus(Output out, String status) {
+        for (int i = 0; i < STATUSES.length; i++) {
+            if (status == null ? STATUSES[i] == null : status.equals(STATUSES[i])) {
+                out.write(i);
+                return;
+            }
+        }
+        out.write(STATUS_OTHER);
+        out.writeString(status);
+    }
+
+    private void writeMatch(Output out, Match match) {
+        out.writeVarInt(match.getId());
+        out.writeVarInt(match.getPlayer1Id());
+        out.writeVarInt(match.getPlayer2Id());
+        out.writeNullableInt(match.getWinnerId());
+        out.writeNullableString(match.getPlayer1Name());
+        out.writeNullableString(match.getPlayer2Name());
+        out.writeTimestamp(match.getTime());
+        out.writeNullableString(match.getEndReason());
+    }
+
+    private void writeMatchDetails(Output out, MatchDetails details) {
+        out.writeVarInt(details.getId());
+        out.writeVarInt(details.getMatchId());
+        out.writeVarInt(details.getRound());
+        out.writeVarInt(details.getShooterId());
+        out.writeVarInt(details.getGoalkeeperId());
+        writeMove(out, details.getShooterDirection());
+        writeMove(out, details.getGoalkeeperDirection());
+        out.writeNullableString(details.getResult());
+        out.writeTimestamp(details.getTime());
+    }
+
+    // 0 = null, 1..COUNT = mã nước đi + 1, COUNT + 1 = chuỗi tự do theo sau
+    private void writeMove(Output out, String move) {
+        if (move == null) {
+            out.write(0);
+            return;
+        }
+        int code = Moves.encode(move);
+        if (code >= 0) {
+            out.write(code + 1);
+        } else {
+            out.write(Moves.COUNT + 1);
+            out.writeString(move);
+        }
+    }
+
+    // ===== GIẢI MÃ =====
+    // depth: mức lồng của giá trị (nội dung Message là 1); mảng/danh sách lồng quá MAX_DEPTH bị từ chối
+    // để frame độc không làm tràn stack khi giải mã đệ quy
+    private Object readValue(ByteBuffer in, int depth) throws IOException {
+        if (depth > MAX_DEPTH) {
+            throw new IOException("Giá trị lồng quá " + MAX_DEPTH + " mức");
+        }
+        int tag = in.get() & 0xFF;
+        switch (tag) {
+            case T_NULL:
+                return null;
+            case T_INT:
+                return readVarInt(in);
+            case T_LONG:
+                return readVarLong(in);
+            case T_BOOL:
+                return in.get() != 0;
+            case T_STRING:
+                return readString(in);
+            case T_MOVE: {
+                int code = in.get() & 0xFF;
+                if (!Moves.isValid(code)) {
+                    throw new IOException("Mã nước đi không hợp lệ: " + code);
+                }
+                return Moves.decode(code);
+            }
+            case T_STRING_ARRAY: {
+                String[] array = new String[readLength(in)];
+                for (int i = 0; i < array.length; i++) {
+                    array[i] = readNullableString(in);
+                }
+                return array;
+            }
+            case T_INT_ARRAY: {
+                int[] array = new int[readLength(in)];
+                for (int i = 0; i < array.length; i++) {
+                    array[i] = readVarInt(in);
+                }
+                return array;
+            }
+            case T_OBJECT_ARRAY: {
+                Object[] array = new Object[readLength(in)];
+                for (int i = 0; i < array.length; i++) {
+                    array[i] = readValue(in, depth + 1);
+                }
+                return array;
+            }
+            case T_USER:
+                return readUser(in);
+            case T_MATCH:
+                return readMatch(in);
+            case T_MATCH_DETAILS:
+                return readMatchDetails(in);
+            case T_PRESENCE: {
+                int userId = readVarInt(in);
+                String username = readString(in);
+                String status = readStatus(in);
+                return new PresenceUpdate(userId, username, status, readVarLong(in));
+            }
+            case T_ROUND_RESULT: {
+                int shot = in.get() & 0xFF;
+                int save = in.get() & 0xFF;
+                if (!Moves.isValid(shot) || !Moves.isValid(save)) {
+                    throw new IOException("Mã nước đi không hợp lệ: " + shot + "/" + save);
+                }
+                int flags = in.get();
+                int yourScore = readVarInt(in);
+                int opponentScore = readVarInt(in);
+                return new RoundResult((byte) shot, (byte) save, (flags & 1) != 0, (flags & 2) != 0,
+                        yourScore, opponentScore, readVarInt(in));
+            }
+            case T_LIST: {
+                int size = readLength(in);
+                List<Object> list = new ArrayList<>(size);
+                for (int i = 0; i < size; i++) {
+                    list.add(readValue(in, depth + 1));
+                }
+                return list;
+            }
+            default:
+                throw new IOException("Tag không hợp lệ: " + tag);
+        }
+    }
+
+    private User readUser(ByteBuffer in) throws IOException {
+        int id = readVarInt(in);
+        String username = readString(in);
+        int points = readVarInt(in);
+        return new User(id, username, points, readStatus(in));
+    }
+
+    private String readStatus(ByteBuffer in) throws IOException {
+        int code = in.get() & 0xFF;
+        if (code < STATUSES.length) {
+            return STATUSES[code];
+        }
+        if (code == STATUS_OTHER) {
+            return readString(in);
+        }
+        throw new IOException("Mã trạng thái không hợp lệ: " + code);
+    }
+
+    private Match readMatch(ByteBuffer in) throws IOException {
+        int id = readVarInt(in);
+        int player1Id = readVarInt(in);
+        int player2Id = readVarInt(in);
+        Integer winnerId = readNullableInt(in);
+        String player1Name = readNullableString(in);
+        String player2Name = readNullableString(in);
+        Timestamp time = readTimestamp(in);
+        String endReason = readNullableString(in);
+        return new Match(id, player1Id, player2Id, winnerId, player1Name, player2Name, time, endReason);
+    }
+
+    private MatchDetails readMatchDetails(ByteBuffer in) throws IOException {
+        int id = readVarInt(in);
+        int matchId = readVarInt(in);
+        int round = readVarInt(in);
+        int shooterId = readVarInt(in);
+        int goalkeeperId = readVarInt(in);
+        String shooterDirection = readMove(in);
+        String goalkeeperDirection = readMove(in);
+        String result = readNullableString(in);
+        Timestamp time = readTimestamp(in);
+        return new MatchDetails(id, matchId, round, shooterId, goalkeeperId,
+                shooterDirection, goalkeeperDirection, result, time);
+    }
+
+    private String readMove(ByteBuffer in) throws IOException {
+        int code = in.get() & 0xFF;
+        if (code == 0) {
+            return null;
+        }
+        if (code <= Moves.COUNT) {
+            return Moves.decode(code - 1);
+        }
+        if (code == Moves.COUNT + 1) {
+            return readString(in);
+        }
+        throw new IOException("Mã nước đi không hợp lệ: " + code);
+    }
+
+    private static int readLength(ByteBuffer in) throws IOException {
+        int length = readVarInt(in);
+        if (length < 0 || length > in.remaining()) {
+            throw new IOException("Độ dài không hợp lệ: " + length);
+        }
+        return length;
+    }
+
+    private static String readString(ByteBuffer in) throws IOException {
+        int length = readLength(in);
+        String s = new String(in.array(), in.position(), length, StandardCharsets.UTF_8);
+        in.position(in.position() + length);
+        return s;
+    }
+
+    private static String readNullableString(ByteBuffer in) throws IOException {
+        return in.get() == 0 ? null : readString(in);
+    }
+
+    private static Integer readNullableInt(ByteBuffer in) throws IOException {
+        return in.get() == 0 ? null : readVarInt(in);
+    }
+
+    private static Timestamp readTimestamp(ByteBuffer in) throws IOException {
+        return in.get() == 0 ? null : new Timestamp(readVarLong(in));
+    }
+
+    private static int readVarInt(ByteBuffer in) throws IOException {
+        long value = readVarLong(in);
+        if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+            throw new IOException("Giá trị int vượt giới hạn: " + value);
+        }
+        return (int) value;
+    }
+
+    // Varint kiểu zigzag: số nhỏ (kể cả số âm nhỏ) chỉ tốn 1 byte
+    private static long readVarLong(ByteBuffer in) throws IOException {
+        long raw = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.get();
+            raw |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return (raw >>> 1) ^ -(raw & 1);
+            }
+        }
+        throw new IOException("Varint quá dài");
+    }
+
+    // Buffer tự quản lý, tránh các phương thức synchronized của ByteArrayOutputStream
+    private static class Output {
+        private byte[] buf = new byte[64];
+        private int count;
+
+        void write(int b) {
+            ensureCapacity(count + 1);
+            buf[count++] = (byte) b;
+        }
+
+        void write(byte[] bytes, int off, int len) {
+            ensureCapacity(count + len);
+            System.arraycopy(bytes, off, buf, count, len);
+            count += len;
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(buf, count);
+        }
+
+        private void ensureCapacity(int capacity) {
+            if (capacity > buf.length) {
+                buf = Arrays.copyOf(buf, Math.max(capacity, buf.length * 2));
+            }
+        }
+
+        void writeVarInt(int value) {
+            writeVarLong(value);
+        }
+
+        void writeVarLong(long value) {
+            long raw = (value << 1) ^ (value >> 63);
+            while ((raw & ~0x7FL) != 0) {
+                write((int) ((raw & 0x7F) | 0x80));
+                raw >>>= 7;
+            }
+            write((int) raw);
+        }
+
+        void writeString(String s) {
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            writeVarInt(bytes.length);
+            write(bytes, 0, bytes.length);
+        }
+
+        void writeNullableString(String s) {
+            if (s == null) {
+                write(0);
+            } else {
+                write(1);
+                writeString(s);
+            }
+        }
+
+        void writeNullableInt(Integer i) {
+            if (i == null) {
+                write(0);
+            } else {
+                write(1);
+                writeVarInt(i);
+            }
+        }
+
+        void writeTimestamp(Timestamp time) {
+            if (time == null) {
+                write(0);
+            } else {
+                write(1);
+                writeVarLong(time.getTime());
+            }
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package common;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+// Khung tin nhắn trên đường truyền: [int độ dài][nội dung]
+// Dùng chung cho Client, server chế độ blocking và server chế độ NIO.
+public final class Frames {
+
+    public static final int HEADER_LENGTH = 4;
+    public static final int MAX_FRAME_LENGTH = 16 * 1024 * 1024;
+
+    private Frames() {
+    }
+
+    public static void checkLength(int length) throws IOException {
+        if (length < 0 || length > MAX_FRAME_LENGTH) {
+            throw new IOException("Độ dài frame không hợp lệ: " + length);
+        }
+    }
+
+    public static void write(DataOutputStream out, byte[] payload) throws IOException {
+        out.writeInt(payload.length);
+        out.write(payload);
+    }
+
+    public static byte[] read(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        checkLength(length);
+        byte[] payload = new byte[length];
+        in.readFully(payload);
+        return payload;
+    }
+
+    // Gói nội dung thành một ByteBuffer đã sẵn sàng để ghi ra SocketChannel
+    public static ByteBuffer wrap(byte[] payload) {
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_LENGTH + payload.length);
+        buffer.putInt(payload.length);
+        buffer.put(payload);
+        buffer.flip();
+        return buffer;
+    }
+}
@@ -0,0 +1,11 @@
+package common;
+
+import java.io.IOException;
+
+// Chuyển Message <-> nội dung của một frame (không gồm 4 byte độ dài)
+public interface MessageCodec {
+
+    byte[] encode(Message message) throws IOException;
+
+    Message decode(byte[] frame) throws IOException;
+}
@@ -0,0 +1,58 @@
+package common;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputFilter;
+import java.io.ObjectInputStream;
+
+// ObjectInputStream cho dữ liệu Java serialization từ client cũ (không tin cậy). Chỉ cho phép
+// các lớp mà giao thức thật sự dùng, giới hạn độ sâu, độ dài mảng và số byte của mỗi Message;
+// lớp nào khác bị từ chối trước khi được khởi tạo.
+//
+// Giới hạn byte tính theo từng Message chứ không dùng maxbytes của ObjectInputFilter, vì
+// maxbytes đếm trên cả stream và stream của client cũ sống suốt kết nối.
+public class MessageInputStream extends ObjectInputStream {
+
+    public static final int MAX_DEPTH = 8;
+    public static final int MAX_ARRAY = 4096;
+    public static final long MAX_MESSAGE_BYTES = 256 * 1024;
+
+    // Lớp cha của các lớp được phép (Number, Object của Object[]) cũng phải có trong danh sách
+    private static final ObjectInputFilter ALLOWED = ObjectInputFilter.Config.createFilter(
+            "maxdepth=" + MAX_DEPTH + ";maxarray=" + MAX_ARRAY
+            + ";common.*;java.lang.String;java.lang.Boolean;java.lang.Byte;java.lang.Character"
+            + ";java.lang.Short;java.lang.Integer;java.lang.Long;java.lang.Float;java.lang.Double"
+            + ";java.lang.Number;java.lang.Object;java.util.ArrayList;javafx.util.Pair;!*");
+
+    // Vị trí trong stream lúc bắt đầu Message đang đọc, -1 khi chưa có lần kiểm tra nào
+    private long messageStart = -1;
+
+    public MessageInputStream(InputStream in) throws IOException {
+        super(in);
+        setObjectInputFilter(this::check);
+    }
+
+    public Message readMessage() throws IOException {
+        messageStart = -1;
+        Object object;
+        try {
+            object = readObject();
+        } catch (ClassNotFoundException e) {
+            throw new IOException("Stream chứa lớp không xác định", e);
+        }
+        if (!(object instanceof Message)) {
+            throw new IOException("Stream không chứa Message hợp lệ");
+        }
+        return (Message) object;
+    }
+
+    private ObjectInputFilter.Status check(ObjectInputFilter.FilterInfo info) {
+        if (messageStart < 0) {
+            messageStart = info.streamBytes();
+        }
+        if (info.streamBytes() - messageStart > MAX_MESSAGE_BYTES) {
+            return ObjectInputFilter.Status.REJECTED;
+        }
+        return ALLOWED.checkInput(info);
+    }
+}
@@ -0,0 +1,59 @@
+package common;
+
+// Mã hóa nước đi "Hướng-Độ cao" (vd: "Trái-Cao") thành một byte: hướng * 2 + độ cao
+public final class Moves {
+
+    public static final String[] DIRECTIONS = { "Trái", "Giữa", "Phải" };
+    public static final String[] HEIGHTS = { "Thấp", "Cao" };
+
+    public static final int COUNT = DIRECTIONS.length * HEIGHTS.length;
+
+    private static final String[] NAMES = new String[COUNT];
+
+    static {
+        for (int d = 0; d < DIRECTIONS.length; d++) {
+            for (int h = 0; h < HEIGHTS.length; h++) {
+                NAMES[d * HEIGHTS.length + h] = DIRECTIONS[d] + "-" + HEIGHTS[h];
+            }
+        }
+    }
+
+    private Moves() {
+    }
+
+    // Trả về mã nước đi, hoặc -1 nếu chuỗi không đúng dạng chuẩn
+    public static int encode(String move) {
+        if (move == null) {
+            return -1;
+        }
+        for (int i = 0; i < COUNT; i++) {
+            if (NAMES[i].equals(move)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // Như encode nhưng không phân biệt hoa thường và bỏ khoảng trắng thừa, như cách bản cũ so sánh
+    // nước đi; dùng khi chuyển dữ liệu cũ sang mã
+    public static int encodeIgnoreCase(String move) {
+        if (move == null) {
+            return -1;
+        }
+        String trimmed = move.trim();
+        for (int i = 0; i < COUNT; i++) {
+            if (NAMES[i].equalsIgnoreCase(trimmed)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    public static String decode(int code) {
+        return NAMES[code];
+    }
+
+    public static boolean isValid(int code) {
+        return code >= 0 && code < COUNT;
+    }
+}
@@ -0,0 +1,35 @@
+package common;
+
+import java.io.Serializable;
+
+// Thay đổi trạng thái của một người chơi (online/ingame/offline) kèm số phiên bản
+public class PresenceUpdate implements Serializable {
+    private int userId;
+    private String username;
+    private String status;
+    private long version;
+
+    public PresenceUpdate(int userId, String username, String status, long version) {
+        this.userId = userId;
+        this.username = username;
+        this.status = status;
+        this.version = version;
+    }
+
+    // Getters
+    public int getUserId() {
+        return userId;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public String getStatus() {
+        return status;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+}
@@ -0,0 +1,37 @@
+package common;
+
+// Bắt tay giao thức: ngay khi nhận kết nối, server gửi header của stream Java serialization
+// (client cũ tạo ObjectInputStream trước và chờ header này rồi mới gửi gì). Client mới đọc và kiểm tra
+// 4 byte đó rồi gửi frame HELLO; client cũ gửi stream ObjectOutputStream không có khung, luôn bắt
+// đầu bằng 0xACED, nên server phân biệt được hai loại client qua hai byte đầu tiên nhận được.
+public final class Protocol {
+
+    public static final int VERSION = 1;
+    public static final String HELLO = "hello";
+
+    // STREAM_MAGIC và STREAM_VERSION của ObjectOutputStream
+    public static final byte[] STREAM_HEADER = { (byte) 0xAC, (byte) 0xED, 0x00, 0x05 };
+
+    private static final byte[] MAGIC = { 'P', 'S', 'B' };
+
+    private Protocol() {
+    }
+
+    public static byte[] hello() {
+        return new byte[] { MAGIC[0], MAGIC[1], MAGIC[2], (byte) VERSION };
+    }
+
+    public static boolean isHello(byte[] frame) {
+        return frame.length == MAGIC.length + 1
+                && frame[0] == MAGIC[0] && frame[1] == MAGIC[1] && frame[2] == MAGIC[2];
+    }
+
+    // Hai byte đầu tiên của client là header stream Java serialization (client cũ, không có khung)
+    public static boolean isStreamHeader(int b0, int b1) {
+        return b0 == (STREAM_HEADER[0] & 0xFF) && b1 == (STREAM_HEADER[1] & 0xFF);
+    }
+
+    public static int helloVersion(byte[] frame) {
+        return frame[MAGIC.length] & 0xFF;
+    }
+}
@@ -0,0 +1,64 @@
+package common;
+
+import java.io.Serializable;
+
+// Kết quả một lượt sút, nhìn từ phía người nhận: hai nước đi (mã Moves), có vào hay không,
+// tỷ số của mình/đối thủ và số thứ tự lượt. Thay cho animate_shoot_*, kick_result và update_score.
+public class RoundResult implements Serializable {
+    private byte shot;
+    private byte save;
+    private boolean goal;
+    // Người nhận là người sút ở lượt này
+    private boolean shooter;
+    private int yourScore;
+    private int opponentScore;
+    private int round;
+
+    public RoundResult(byte shot, byte save, boolean goal, boolean shooter,
+            int yourScore, int opponentScore, int round) {
+        this.shot = shot;
+        this.save = save;
+        this.goal = goal;
+        this.shooter = shooter;
+        this.yourScore = yourScore;
+        this.opponentScore = opponentScore;
+        this.round = round;
+    }
+
+    // Getters
+    public byte getShot() {
+        return shot;
+    }
+
+    public byte getSave() {
+        return save;
+    }
+
+    public String getShotDirection() {
+        return Moves.decode(shot);
+    }
+
+    public String getSaveDirection() {
+        return Moves.decode(save);
+    }
+
+    public boolean isGoal() {
+        return goal;
+    }
+
+    public boolean isShooter() {
+        return shooter;
+    }
+
+    public int getYourScore() {
+        return yourScore;
+    }
+
+    public int getOpponentScore() {
+        return opponentScore;
+    }
+
+    public int getRound() {
+        return round;
+    }
+}
@@ -0,0 +1,167 @@
+package common;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectOutputStream;
+import java.io.UncheckedIOException;
+
+// Codec dựa trên Java serialization, mỗi frame chứa đúng một Message.
+// ObjectOutputStream/ObjectInputStream sống suốt kết nối nên bảng handle
+// (mô tả lớp, chuỗi lặp lại) không phải gửi lại ở mỗi frame.
+// Mỗi kết nối dùng một instance riêng; các lần encode phải tuần tự với nhau,
+// các lần decode cũng vậy (hai chiều có trạng thái độc lập).
+//
+// Bảng handle của ObjectOutputStream giữ tham chiếu tới mọi đối tượng đã gửi, nên
+// stream được reset() định kỳ theo ResetPolicy để bộ nhớ không tăng mãi và để
+// đối tượng đã bị sửa (vd: User.setStatus) được gửi lại bằng giá trị mới.
+public class SerializedMessageCodec implements MessageCodec {
+
+    private final ByteArrayOutputStream buffer = new ByteArrayOutputStream(512);
+    private final CountingObjectOutputStream out;
+    private final FrameInputStream feed = new FrameInputStream();
+    private final ResetPolicy policy;
+    private MessageInputStream in;
+
+    private int messagesSinceReset;
+    private long bytesSinceReset;
+    private long lastResetNanos = System.nanoTime();
+    private volatile int resetCount;
+
+    public SerializedMessageCodec() {
+        this(ResetPolicy.DEFAULT);
+    }
+
+    public SerializedMessageCodec(ResetPolicy policy) {
+        this(policy, true);
+    }
+
+    // writeHeader = false khi header của stream đã được gửi riêng (Protocol.STREAM_HEADER)
+    public SerializedMessageCodec(ResetPolicy policy, boolean writeHeader) {
+        this.policy = policy;
+        try {
+            // Header của stream nằm ở đầu frame đầu tiên
+            out = new CountingObjectOutputStream(buffer);
+            out.flush();
+            if (!writeHeader) {
+                buffer.reset();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public byte[] encode(Message message) throws IOException {
+        if (policy.shouldReset(messagesSinceReset, bytesSinceReset, System.nanoTime() - lastResetNanos)) {
+            // Dấu TC_RESET nằm trong frame này, bên nhận xóa bảng handle trước khi đọc đối tượng
+            out.reset();
+            out.handles = 0;
+            messagesSinceReset = 0;
+            bytesSinceReset = 0;
+            lastResetNanos = System.nanoTime();
+            resetCount++;
+        }
+        out.writeObject(message);
+        out.flush();
+        byte[] frame = buffer.toByteArray();
+        buffer.reset();
+        messagesSinceReset++;
+        bytesSinceReset += frame.length;
+        return frame;
+    }
+
+    // Số đối tượng đã vào bảng handle kể từ lần reset gần nhất (không tính mô tả lớp)
+    public int getHandleCount() {
+        return out.handles;
+    }
+
+    public int getResetCount() {
+        return resetCount;
+    }
+
+    @Override
+    public Message decode(byte[] frame) throws IOException {
+        feed.setFrame(frame);
+        if (in == null) {
+            in = new MessageInputStream(feed);
+        }
+        return in.readMessage();
+    }
+
+    // Reset khi đạt bất kỳ ngưỡng nào; giá trị <= 0 nghĩa là bỏ qua ngưỡng đó
+    public static class ResetPolicy {
+        public static final ResetPolicy DEFAULT = new ResetPolicy(256, 256 * 1024, 60_000);
+
+        private final int maxMessages;
+        private final long maxBytes;
+        private final long maxAgeNanos;
+
+        public ResetPolicy(int maxMessages, long maxBytes, long maxAgeMillis) {
+            this.maxMessages = maxMessages;
+            this.maxBytes = maxBytes;
+            this.maxAgeNanos = maxAgeMillis * 1_000_000L;
+        }
+
+        boolean shouldReset(int messages, long bytes, long ageNanos) {
+            if (messages == 0) {
+                return false;
+            }
+            return (maxMessages > 0 && messages >= maxMessages)
+                    || (maxBytes > 0 && bytes >= maxBytes)
+                    || (maxAgeNanos > 0 && ageNanos >= maxAgeNanos);
+        }
+    }
+
+    // Đếm số đối tượng mới được cấp handle: replaceObject chỉ được gọi cho đối tượng
+    // chưa có trong bảng handle (đối tượng đã gửi thì chỉ ghi tham chiếu ngược)
+    private static class CountingObjectOutputStream extends ObjectOutputStream {
+        volatile int handles;
+
+        CountingObjectOutputStream(ByteArrayOutputStream out) throws IOException {
+            super(out);
+            enableReplaceObject(true);
+        }
+
+        @Override
+        protected Object replaceObject(Object obj) {
+            handles++;
+            return obj;
+        }
+    }
+
+    // InputStream chỉ trả về dữ liệu của frame hiện tại, hết frame thì báo EOF
+    private static class FrameInputStream extends InputStream {
+        private byte[] frame = new byte[0];
+        private int pos;
+
+        void setFrame(byte[] frame) {
+            this.frame = frame;
+            this.pos = 0;
+        }
+
+        @Override
+        public int read() {
+            return pos < frame.length ? frame[pos++] & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (pos >= frame.length) {
+                return -1;
+            }
+            int n = Math.min(len, frame.length - pos);
+            System.arraycopy(frame, pos, b, off, n);
+            pos += n;
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return frame.length - pos;
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package rules;
+
+import common.Moves;
+
+import java.util.random.RandomGenerator;
+
+// Luật đá luân lưu thuần túy: không I/O, không cấp phát khi đá, nên dùng được cho GameRoom,
+// mô phỏng cân bằng, fuzz và bot. Nước đi là mã byte của common.Moves (hướng * 2 + độ cao).
+// Người chơi được đánh số 0 (player1) và 1 (player2); hai người đá xen kẽ.
+// Một đối tượng chỉ dùng trên một thread (GameRoom chạy tuần tự trên shard của phòng).
+public final class PenaltyMatch {
+
+    public enum State {
+        REGULATION, // 10 lượt đá chính thức
+        SUDDEN_DEATH, // hòa sau 10 lượt, đá từng cặp tới khi có người hơn
+        PLAYER1_WON,
+        PLAYER2_WON,
+        DRAW // chỉ xảy ra khi giới hạn số cặp đá sudden death
+    }
+
+    public static final int REGULATION_KICKS = 10;
+    // Nước đi mặc định khi hết giờ: "Giữa-Thấp"
+    public static final byte DEFAULT_MOVE = (byte) (1 * Moves.HEIGHTS.length);
+
+    private final RandomGenerator random;
+    // Số cặp đá sudden death tối đa trước khi xử hòa, 0 = không giới hạn
+    private final int maxSuddenDeathPairs;
+
+    private int firstShooter;
+    private int kicks;
+    private int score1;
+    private int score2;
+    private State state;
+
+    public PenaltyMatch(RandomGenerator random, int firstShooter) {
+        this(random, firstShooter, 0);
+    }
+
+    public PenaltyMatch(RandomGenerator random, int firstShooter, int maxSuddenDeathPairs) {
+        this.random = random;
+        this.maxSuddenDeathPairs = maxSuddenDeathPairs;
+        reset(firstShooter);
+    }
+
+    // Bắt đầu trận mới với người đá trước cho trước (0 hoặc 1)
+    public void reset(int firstShooter) {
+        if (firstShooter != 0 && firstShooter != 1) {
+            throw new IllegalArgumentException("firstShooter: " + firstShooter);
+        }
+        this.firstShooter = firstShooter;
+        kicks = 0;
+        score1 = 0;
+        score2 = 0;
+        state = State.REGULATION;
+    }
+
+    // Đá một quả; trả về true nếu vào lưới
+    public boolean kick(byte shot, byte save) {
+        if (isFinished()) {
+            throw new IllegalStateException("Trận đấu đã kết thúc: " + state);
+        }
+        if (!Moves.isValid(shot) || !Moves.isValid(save)) {
+            throw new IllegalArgumentException("Nước đi không hợp lệ: " + shot + ", " + save);
+        }
+        boolean goal = resolve(shot, save);
+        if (goal) {
+            if (getShooter() == 0) {
+                score1++;
+            } else {
+                score2++;
+            }
+        }
+        kicks++;
+        state = evaluate();
+        return goal;
+    }
+
+    // Sai hướng thì vào; đúng cả hướng và độ cao thì bị chặn; đúng hướng sai độ cao thì 50/50
+    private boolean resolve(byte shot, byte save) {
+        int heights = Moves.HEIGHTS.length;
+        if (shot / heights != save / heights) {
+            return true;
+        }
+        if (shot == save) {
+            return false;
+        }
+        return random.nextBoolean();
+    }
+
+    private State evaluate() {
+        if (kicks < REGULATION_KICKS) {
+            return State.REGULATION;
+        }
+        int suddenDeathKicks = kicks - REGULATION_KICKS;
+        // Sudden death chỉ xét sau khi cả hai đã đá xong một cặp
+        if (suddenDeathKicks % 2 != 0) {
+            return State.SUDDEN_DEATH;
+        }
+        if (score1 > score2) {
+            return State.PLAYER1_WON;
+        }
+        if (score2 > score1) {
+            return State.PLAYER2_WON;
+        }
+        if (maxSuddenDeathPairs > 0 && suddenDeathKicks / 2 >= maxSuddenDeathPairs) {
+            return State.DRAW;
+        }
+        return State.SUDDEN_DEATH;
+    }
+
+    public boolean isFinished() {
+        return state == State.PLAYER1_WON || state == State.PLAYER2_WON || state == State.DRAW;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    // Người đá quả tiếp theo (0 hoặc 1)
+    public int getShooter() {
+        return (kicks & 1) == 0 ? firstShooter : 1 - firstShooter;
+    }
+
+    public int getGoalkeeper() {
+        return 1 - getShooter();
+    }
+
+    public int getFirstShooter() {
+        return firstShooter;
+    }
+
+    public int getScore(int player) {
+        return player == 0 ? score1 : score2;
+    }
+
+    // Số quả đã đá; quả tiếp theo là lượt getKicks() + 1
+    public int getKicks() {
+        return kicks;
+    }
+
+    // Người thắng (0 hoặc 1), hoặc -1 nếu chưa kết thúc hoặc hòa
+    public int getWinner() {
+        if (state == State.PLAYER1_WON) {
+            return 0;
+        }
+        if (state == State.PLAYER2_WON) {
+            return 1;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,44 @@
+package rules;
+
+import common.Moves;
+
+import java.util.random.RandomGenerator;
+
+// Mô phỏng nhiều trận với hai bot chọn nước ngẫu nhiên, để đo tốc độ engine và xem phân bố kết quả.
+// Chạy: java rules.PenaltySimulation [số trận]
+public class PenaltySimulation {
+
+    public static void main(String[] args) {
+        int matches = args.length > 0 ? Integer.parseInt(args[0]) : 5_000_000;
+        RandomGenerator random = RandomGenerator.getDefault();
+        PenaltyMatch match = new PenaltyMatch(random, 0);
+
+        // Làm nóng JIT
+        simulate(match, random, matches / 10);
+
+        long start = System.nanoTime();
+        long[] totals = simulate(match, random, matches);
+        long elapsed = System.nanoTime() - start;
+
+        System.out.printf("matches=%d kicks=%d time=%.0fms matches/s=%.0f%n",
+                matches, totals[3], elapsed / 1e6, matches / (elapsed / 1e9));
+        System.out.printf("player1Won=%.2f%% player2Won=%.2f%% draw=%.2f%% avgKicks=%.2f%n",
+                100.0 * totals[0] / matches, 100.0 * totals[1] / matches,
+                100.0 * totals[2] / matches, (double) totals[3] / matches);
+    }
+
+    // Trả về {player1 thắng, player2 thắng, hòa, tổng số quả}
+    private static long[] simulate(PenaltyMatch match, RandomGenerator random, int matches) {
+        long[] totals = new long[4];
+        for (int i = 0; i < matches; i++) {
+            match.reset(i & 1);
+            while (!match.isFinished()) {
+                match.kick((byte) random.nextInt(Moves.COUNT), (byte) random.nextInt(Moves.COUNT));
+            }
+            int winner = match.getWinner();
+            totals[winner < 0 ? 2 : winner]++;
+            totals[3] += match.getKicks();
+        }
+        return totals;
+    }
+}
@@ -0,0 +1,143 @@
+package server;
+
+import common.Frames;
+import common.Message;
+import common.MessageInputStream;
+import common.Protocol;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadFactory;
+
+// Kết nối blocking: một thread đọc và một thread ghi riêng cho mỗi client
+public class BlockingConnection extends QueuedConnection {
+    private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+
+    private final Socket socket;
+    private final BufferedInputStream buffered;
+    private final DataInputStream in;
+    private final OutputStream out;
+
+    public BlockingConnection(Socket socket) throws IOException {
+        this.socket = socket;
+        this.buffered = new BufferedInputStream(socket.getInputStream());
+        this.in = new DataInputStream(buffered);
+        this.out = new BufferedOutputStream(socket.getOutputStream(), WRITE_BUFFER_SIZE);
+    }
+
+    public void start(ThreadFactory threads) {
+        queueStreamHeader();
+        threads.newThread(this::readLoop).start();
+        threads.newThread(this::writeLoop).start();
+    }
+
+    private void readLoop() {
+        try {
+            // Xem trước hai byte đầu: 0xACED là client cũ gửi stream ObjectOutputStream không có khung
+            buffered.mark(2);
+            int b0 = buffered.read();
+            int b1 = buffered.read();
+            buffered.reset();
+            if (b0 < 0 || b1 < 0) {
+                return;
+            }
+            if (Protocol.isStreamHeader(b0, b1)) {
+                codec.useLegacyStream();
+                readLegacyStream();
+                return;
+            }
+            while (handler.isRunning()) {
+                Message message = codec.decode(Frames.read(in));
+                if (message != null) {
+                    handler.onMessage(message);
+                }
+            }
+        } catch (IOException | SQLException e) {
+            // Client ngắt kết nối hoặc gửi dữ liệu hỏng
+        } finally {
+            if (handler != null) {
+                handler.onDisconnect();
+            }
+        }
+    }
+
+    private void readLegacyStream() throws IOException, SQLException {
+        MessageInputStream objects = new MessageInputStream(buffered);
+        while (handler.isRunning()) {
+            handler.onMessage(objects.readMessage());
+        }
+    }
+
+    // Gom mọi frame đang chờ vào buffer rồi flush một lần cho cả loạt
+    private void writeLoop() {
+        List<ByteBuffer> batch = new ArrayList<>();
+        try {
+            while (outbound.awaitAndDrain(batch)) {
+                for (ByteBuffer frame : batch) {
+                    out.write(frame.array(), frame.arrayOffset() + frame.position(), frame.remaining());
+                }
+                out.flush();
+                batch.clear();
+            }
+        } catch (IOException e) {
+            System.out.println("Lỗi khi gửi tin nhắn tới " + describe() + ": " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            // Đóng socket để luồng đọc tự kết thúc và dọn dẹp
+            closed.set(true);
+            outbound.close();
+            closeSocket();
+        }
+    }
+
+    @Override
+    protected void onFrameQueued() {
+        // Thread ghi đang chờ trên hàng đợi, không cần làm gì thêm
+    }
+
+    // Các frame đã xếp hàng (vd: logout_success) vẫn được gửi nốt trước khi thread ghi đóng socket.
+    // Chiều đọc đóng ngay để thread đọc thoát và dọn dẹp phiên (onDisconnect) mà không chờ thread ghi.
+    @Override
+    public void close() {
+        closed.set(true);
+        outbound.close();
+        try {
+            if (!socket.isClosed() && !socket.isInputShutdown()) {
+                socket.shutdownInput();
+            }
+        } catch (IOException e) {
+            // Socket đã đóng
+        }
+    }
+
+    // Client không đọc: thread ghi có thể đang kẹt trong write(), chỉ đóng socket mới gỡ được
+    @Override
+    protected void abort() {
+        close();
+        closeSocket();
+    }
+
+    private void closeSocket() {
+        try {
+            if (!socket.isClosed()) {
+                socket.close();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public String getRemoteAddress() {
+        return String.valueOf(socket.getInetAddress());
+    }
+}
@@ -0,0 +1,77 @@
+package server;
+
+import common.Message;
+import common.Protocol;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+// Đo số broadcast/giây với 1k, 5k, 10k kết nối giả lập (đã bắt tay giao thức nhị phân).
+// So sánh vòng lặp tuần tự mã hóa lại cho từng người nhận với Broadcaster.
+// Chạy: java server.BroadcastBenchmark [số giây mỗi lần đo]
+public class BroadcastBenchmark {
+
+    public static void main(String[] args) throws IOException {
+        int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 3;
+        Broadcaster broadcaster = new Broadcaster(ServerConfig.BROADCAST_THREADS, ServerConfig.BROADCAST_CHUNK);
+        Message message = new Message("status_update", "player_123 đã online.");
+
+        System.out.printf("%-10s %18s %18s%n", "sessions", "serial bcast/s", "fan-out bcast/s");
+        for (int sessions : new int[] { 1000, 5000, 10000 }) {
+            List<ClientConnection> recipients = new ArrayList<>();
+            for (int i = 0; i < sessions; i++) {
+                recipients.add(new DiscardingConnection());
+            }
+            double serial = measure(seconds, () -> {
+                for (ClientConnection connection : recipients) {
+                    connection.send(message);
+                }
+            });
+            double fanOut = measure(seconds, () -> broadcaster.broadcast(recipients, message));
+            System.out.printf("%-10d %18.0f %18.0f%n", sessions, serial, fanOut);
+        }
+        System.exit(0);
+    }
+
+    private static double measure(int seconds, Runnable broadcast) {
+        long warmupEnd = System.nanoTime() + 1_000_000_000L;
+        while (System.nanoTime() < warmupEnd) {
+            broadcast.run();
+        }
+        long count = 0;
+        long start = System.nanoTime();
+        long end = start + seconds * 1_000_000_000L;
+        while (System.nanoTime() < end) {
+            broadcast.run();
+            count++;
+        }
+        return count / ((System.nanoTime() - start) / 1e9);
+    }
+
+    // Kết nối giả: frame được xếp hàng như thật rồi bỏ đi ngay như một writer rất nhanh
+    private static class DiscardingConnection extends QueuedConnection {
+        private final List<ByteBuffer> sink = new ArrayList<>();
+
+        DiscardingConnection() throws IOException {
+            codec.decode(Protocol.hello());
+        }
+
+        @Override
+        protected void onFrameQueued() {
+            outbound.drainTo(sink);
+            sink.clear();
+        }
+
+        @Override
+        public void close() {
+            closed.set(true);
+        }
+
+        @Override
+        public String getRemoteAddress() {
+            return "benchmark";
+        }
+    }
+}
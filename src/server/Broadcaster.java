@@ -0,0 +1,111 @@
+package server;
+
+import common.BinaryMessageCodec;
+import common.Frames;
+import common.Message;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAdder;
+
+// Gửi một tin nhắn tới nhiều kết nối: mã hóa đúng một lần, các kết nối dùng giao thức
+// nhị phân nhận chung một buffer; danh sách người nhận được chia phần và xếp hàng song song.
+public class Broadcaster {
+    private final BinaryMessageCodec codec = new BinaryMessageCodec();
+    private final ExecutorService pool;
+    private final int chunkSize;
+    private final LongAdder broadcasts = new LongAdder();
+    private final LongAdder deliveries = new LongAdder();
+
+    public Broadcaster(int threads, int chunkSize) {
+        this.chunkSize = chunkSize;
+        this.pool = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "broadcast");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    // Trả về khi tin nhắn đã nằm trong hàng đợi của mọi người nhận, để thứ tự
+    // với các tin nhắn gửi sau đó từ cùng thread được giữ nguyên
+    public void broadcast(List<ClientConnection> recipients, Message message) {
+        broadcast(recipients, message, Collections.singletonList(message));
+    }
+
+    // legacyMessages được gửi thay cho message tới client dùng Java serialization
+    // (ví dụ client cũ chưa có lớp PresenceUpdate)
+    public void broadcast(List<ClientConnection> recipients, Message message, List<Message> legacyMessages) {
+        if (recipients.isEmpty()) {
+            return;
+        }
+        ByteBuffer frame = encodeShared(message);
+        broadcasts.increment();
+
+        int size = recipients.size();
+        if (size <= chunkSize) {
+            deliver(recipients, 0, size, frame, message, legacyMessages);
+            return;
+        }
+        int chunks = (size + chunkSize - 1) / chunkSize;
+        CountDownLatch done = new CountDownLatch(chunks - 1);
+        for (int i = 1; i < chunks; i++) {
+            int from = i * chunkSize;
+            int to = Math.min(size, from + chunkSize);
+            pool.execute(() -> {
+                try {
+                    deliver(recipients, from, to, frame, message, legacyMessages);
+                } finally {
+                    done.countDown();
+                }
+            });
+        }
+        // Phần đầu tiên chạy ngay trên thread gọi
+        deliver(recipients, 0, chunkSize, frame, message, legacyMessages);
+        try {
+            done.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // null nếu mã hóa thất bại; khi đó vẫn gửi được: từng kết nối tự mã hóa bằng codec của nó
+    // (client cũ nhận legacyMessages)
+    private ByteBuffer encodeShared(Message message) {
+        try {
+            return Frames.wrap(codec.encode(message));
+        } catch (IOException e) {
+            System.out.println("Không mã hóa chung được tin nhắn " + message.getType() + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    // frame == null: mã hóa chung thất bại, gửi từng kết nối như sendMessage
+    private void deliver(List<ClientConnection> recipients, int from, int to, ByteBuffer frame,
+            Message message, List<Message> legacyMessages) {
+        for (int i = from; i < to; i++) {
+            ClientConnection connection = recipients.get(i);
+            if (frame == null && connection.isBinary()) {
+                connection.send(message);
+            } else if (frame == null || !connection.sendEncoded(frame.duplicate())) {
+                // Client cũ: codec có trạng thái riêng nên phải mã hóa lại
+                for (Message legacyMessage : legacyMessages) {
+                    connection.send(legacyMessage);
+                }
+            }
+        }
+        deliveries.add(to - from);
+    }
+
+    public long getBroadcastCount() {
+        return broadcasts.sum();
+    }
+
+    public long getDeliveryCount() {
+        return deliveries.sum();
+    }
+}
@@ -0,0 +1,168 @@
+package server;
+
+import common.Message;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Chat theo chủ đề (pub/sub): phòng chờ, mỗi GameRoom một chủ đề, và chủ đề riêng giữa hai người.
+// Mỗi dòng chat chỉ gửi tới người đăng ký chủ đề đó; mỗi chủ đề giữ vài dòng gần nhất
+// để gửi lại cho người vào sau. Đăng ký/hủy (hiếm) đi qua một khóa chung để chủ đề và danh sách
+// chủ đề của từng client luôn khớp nhau; gửi tin chỉ đọc, không cần khóa.
+public class ChatTopics {
+    public static final String LOBBY = "lobby";
+    private static final String PRIVATE_PREFIX = "private:";
+
+    private final Server server;
+    private final ConcurrentHashMap<String, Topic> topics = new ConcurrentHashMap<>();
+    // Các chủ đề mà từng client đang đăng ký, để hủy hết khi client thoát; chỉ dùng khi giữ lock
+    private final HashMap<ClientHandler, Set<String>> memberships = new HashMap<>();
+    private final ReentrantLock lock = new ReentrantLock();
+
+    public ChatTopics(Server server) {
+        this.server = server;
+        topics.put(LOBBY, new Topic());
+    }
+
+    public static String roomTopic(int roomId) {
+        return "room:" + roomId;
+    }
+
+    // Tên chủ đề riêng không phụ thuộc ai là người gửi
+    public static String privateTopic(int userA, int userB) {
+        return PRIVATE_PREFIX + Math.min(userA, userB) + ":" + Math.max(userA, userB);
+    }
+
+    // Đăng ký chủ đề; trả về các dòng gần nhất (rỗng nếu client đã đăng ký từ trước hoặc đã thoát)
+    public List<String> subscribe(String name, ClientHandler client) {
+        lock.lock();
+        try {
+            // Client đã ngắt kết nối: unsubscribeAll đã hoặc sắp chạy, không đăng ký lại
+            if (!client.isRunning()) {
+                return Collections.emptyList();
+            }
+            Topic topic = topics.computeIfAbsent(name, key -> new Topic());
+            if (!topic.subscribers.add(client)) {
+                return Collections.emptyList();
+            }
+            memberships.computeIfAbsent(client, k -> new HashSet<>()).add(name);
+            return topic.recentLines();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void unsubscribe(String name, ClientHandler client) {
+        lock.lock();
+        try {
+            Set<String> names = memberships.get(client);
+            if (names != null) {
+                names.remove(name);
+                if (names.isEmpty()) {
+                    memberships.remove(client);
+                }
+            }
+            leave(name, client);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void unsubscribeAll(ClientHandler client) {
+        lock.lock();
+        try {
+            Set<String> names = memberships.remove(client);
+            if (names != null) {
+                for (String name : names) {
+                    leave(name, client);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Gọi khi giữ lock
+    private void leave(String name, ClientHandler client) {
+        Topic topic = topics.get(name);
+        if (topic == null) {
+            return;
+        }
+        if (name.startsWith(PRIVATE_PREFIX)) {
+            // Chủ đề riêng bỏ luôn khi một trong hai người rời đi; lần nhắn sau sẽ tạo lại
+            topics.remove(name);
+            for (ClientHandler member : topic.subscribers) {
+                Set<String> names = memberships.get(member);
+                if (names != null) {
+                    names.remove(name);
+                    if (names.isEmpty()) {
+                        memberships.remove(member);
+                    }
+                }
+            }
+            return;
+        }
+        topic.subscribers.remove(client);
+        // Chủ đề phòng không còn ai thì bỏ, phòng chờ luôn giữ lại
+        if (topic.subscribers.isEmpty() && !LOBBY.equals(name)) {
+            topics.remove(name);
+        }
+    }
+
+    // Gửi một dòng tới mọi người đăng ký chủ đề
+    public void publish(String name, String line) {
+        Topic topic = topics.get(name);
+        if (topic == null) {
+            return;
+        }
+        topic.remember(line);
+        server.broadcastTo(new ArrayList<>(topic.subscribers), new Message("chat", line));
+    }
+
+    public int getTopicCount() {
+        return topics.size();
+    }
+
+    private static class Topic {
+        private final Set<ClientHandler> subscribers = ConcurrentHashMap.newKeySet();
+        // Bộ đệm vòng các dòng gần nhất
+        private final String[] recent = new String[ServerConfig.CHAT_HISTORY];
+        private int next;
+        private int count;
+        private final ReentrantLock lock = new ReentrantLock();
+
+        void remember(String line) {
+            if (recent.length == 0) {
+                return;
+            }
+            lock.lock();
+            try {
+                recent[next] = line;
+                next = (next + 1) % recent.length;
+                count = Math.min(count + 1, recent.length);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        List<String> recentLines() {
+            lock.lock();
+            try {
+                List<String> lines = new ArrayList<>(count);
+                int start = (next - count + recent.length) % Math.max(1, recent.length);
+                for (int i = 0; i < count; i++) {
+                    lines.add(recent[(start + i) % recent.length]);
+                }
+                return lines;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package server;
+
+import common.Message;
+
+import java.nio.ByteBuffer;
+
+// Kết nối tới một client, ẩn đi cách truyền tải (blocking hoặc NIO) với ClientHandler
+public interface ClientConnection {
+
+    // Gửi tin nhắn; lỗi ghi được xử lý bên trong bằng cách đóng kết nối
+    void send(Message message);
+
+    // Gửi một frame đã mã hóa sẵn bằng BinaryMessageCodec (có thể dùng chung giữa nhiều
+    // kết nối, mỗi kết nối nhận một bản duplicate()); trả về false nếu client dùng giao thức cũ
+    boolean sendEncoded(ByteBuffer frame);
+
+    // true nếu client dùng giao thức nhị phân
+    boolean isBinary();
+
+    void close();
+
+    boolean isOpen();
+
+    String getRemoteAddress();
+
+    // Số frame đang chờ gửi và mức cao nhất từng đạt
+    int getOutboundDepth();
+
+    int getPeakOutboundDepth();
+
+    // Số đối tượng trong bảng handle của stream Java serialization (0 với giao thức nhị phân)
+    int getSerializationHandles();
+}
@@ -3,88 +3,92 @@ package server;
 import common.Match;
 import common.MatchDetails;
 import common.Message;
+import common.Protocol;
 import common.User;
 
-import java.io.*;
-import java.net.Socket;
+import java.io.IOException;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.List;
 import javafx.util.Pair;
 
-public class ClientHandler implements Runnable {
-    private Socket socket;
+public class ClientHandler {
+    private ClientConnection connection;
     private Server server;
     private DatabaseManager dbManager;
-    private ObjectInputStream in;
-    private ObjectOutputStream out;
     private User user;
-    private GameRoom gameRoom;
+    // Được GameRoom xóa từ shard của phòng nên cần volatile
+    private volatile GameRoom gameRoom;
     private volatile boolean isRunning = true;
+    // Chủ đề chat hiện tại: phòng chờ, hoặc chủ đề của GameRoom đang chơi
+    private volatile String chatTopic;
 
-    public ClientHandler(Socket socket, Server server, DatabaseManager dbManager) {
-        this.socket = socket;
+    public ClientHandler(ClientConnection connection, Server server, DatabaseManager dbManager) {
+        this.connection = connection;
         this.server = server;
         this.dbManager = dbManager;
-        try {
-            // Đặt ObjectOutputStream trước ObjectInputStream để tránh deadlock
-            out = new ObjectOutputStream(socket.getOutputStream());
-            out.flush(); // Đảm bảo ObjectOutputStream được khởi tạo trước
-            in = new ObjectInputStream(socket.getInputStream());
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+        server.connectionOpened();
     }
 
     public User getUser() {
         return user;
     }
 
-    // Trong phương thức run()
-    @Override
-    public void run() {
+    public ClientConnection getConnection() {
+        return connection;
+    }
+
+    public boolean isRunning() {
+        return isRunning;
+    }
+
+    public String getDisplayName() {
+        return user != null ? user.getUsername() : "client";
+    }
+
+    // Được ClientConnection gọi cho từng tin nhắn, tuần tự theo thứ tự nhận
+    void onMessage(Message message) throws IOException, SQLException {
+        handleMessage(message);
+    }
+
+    // Được ClientConnection gọi đúng một lần khi kết nối kết thúc
+    void onDisconnect() {
+        System.out.println("Kết nối với " + getDisplayName() + " bị ngắt.");
+        isRunning = false; // Dừng vòng lặp
+        GameRoom room = gameRoom;
+        if (room != null) {
+            room.handlePlayerDisconnect(this);
+        }
         try {
-            while (isRunning) {
-                Message message = (Message) in.readObject();
-                if (message != null) {
-                    handleMessage(message);
-                }
-            }
-        } catch (IOException | ClassNotFoundException | SQLException e) {
-            System.out.println("Kết nối với " + (user != null ? user.getUsername() : "client") + " bị ngắt.");
-            isRunning = false; // Dừng vòng lặp
-            if (gameRoom != null) {
-                try {
-                    gameRoom.handlePlayerDisconnect(this);
-                } catch (IOException | SQLException ex) {
-                    ex.printStackTrace();
-                }
+            if (user != null) {
+                server.getPresence().removeInterest(this);
+                server.getChat().unsubscribeAll(this);
+                server.getPresence().update(user, PresenceService.OFFLINE);
+                server.removeClient(this);
             }
         } finally {
-            try {
-                if (user != null) {
-                    dbManager.updateUserStatus(user.getId(), "offline");
-                    server.broadcast(new Message("status_update", user.getUsername() + " đã offline."));
-                    server.removeClient(this);
-                }
-                if (socket != null && !socket.isClosed()) {
-                    socket.close();
-                }
-            } catch (IOException | SQLException e) {
-                e.printStackTrace();
-            }
+            connection.close();
+            server.connectionClosed();
         }
     }
 
     private void handleMessage(Message message) throws IOException, SQLException {
         switch (message.getType()) {
+            case Protocol.HELLO:
+                // Xác nhận client được dùng giao thức nhị phân
+                sendMessage(new Message(Protocol.HELLO, Protocol.VERSION));
+                break;
             case "login":
                 handleLogin(message);
                 break;
             case "register":
                 handleRegister(message);
                 break;
+            case "search_users":
+                handleSearchUsers(message);
+                break;
             case "get_users":
-                handleGetUsers();
+                handleGetUsers(message);
                 break;
             case "request_match":
                 handleMatchRequest(message);
@@ -95,6 +99,9 @@ public class ClientHandler implements Runnable {
             case "chat":
                 handleChat(message);
                 break;
+            case "presence_interest":
+                handlePresenceInterest(message);
+                break;
             case "logout":
                 handleLogout();
                 break;
@@ -110,20 +117,26 @@ public class ClientHandler implements Runnable {
             case "get_leaderboard":
                 handleGetLeaderboard();
                 break;
+            case "get_leaderboard_page":
+                handleGetLeaderboardPage(message);
+                break;
+            case "get_leaderboard_around":
+                handleGetLeaderboardAround(message);
+                break;
             case "get_match_history":
-                handleGetMatchHistory();
+                handleGetMatchHistory(message);
                 break;
             case "quit_game":
                 handleQuitGame();
                 break;
             case "get_user_matches":
-                handleGetUserMatches();
+                handleGetUserMatches(message);
                 break;
             case "get_match_details":
                 handleGetMatchDetails(message);
                 break;
             case "timeout":
-                handleHandleTimeout(message);
+                // Hạn lượt do server quản lý (GameRoom); client cũ vẫn gửi tin này, bỏ qua
                 break;
             case "return_to_main":
                 // Không cần xử lý gì thêm ở server side cho thông báo này
@@ -174,10 +187,13 @@ public class ClientHandler implements Runnable {
             }
             
             // Thực hiện đăng ký qua DatabaseManager
-            boolean success = dbManager.registerUser(username, password);
+            User registered = dbManager.registerUser(username, password);
             
-            if (success) {
+            if (registered != null) {
                 System.out.println("✓ Đăng ký thành công: " + username);
+                // Người chơi mới xuất hiện trong danh bạ (và bảng xếp hạng) ngay, trước cả lần đăng nhập đầu
+                server.getLeaderboard().ensure(registered);
+                server.getSearchIndex().add(registered);
                 sendMessage(new Message("register_success", 
                     "Chúc mừng! Đăng ký thành công.\nTài khoản: " + username + "\nVui lòng đăng nhập."));
             } else {
@@ -200,47 +216,129 @@ public class ClientHandler implements Runnable {
     }
     // ========== KẾT THÚC XỬ LÝ ĐĂNG KÝ ==========
 
-    private void handleHandleTimeout(Message message) throws IOException, SQLException {
-        if (gameRoom != null) {
-            if (message.getContent().equals("shooter")) {
-                gameRoom.startShooterTimeout();
-            } else if (message.getContent().equals("goalkeeper")) {
-                gameRoom.startGoalkeeperTimeout();
-            }
-        }
-    }
-
     private void handleGetMatchDetails(Message message) throws IOException, SQLException {
         int matchId = (int) message.getContent();
-        List<MatchDetails> details = dbManager.getMatchDetails(matchId);
+        List<MatchDetails> details = server.getHistoryCache().getMatchDetails(matchId);
         sendMessage(new Message("match_details", details));
     }
 
-    private void handleGetUserMatches() throws IOException, SQLException {
-        List<Match> matches = dbManager.getUserMatches(user.getId());
-        sendMessage(new Message("user_matches", matches));
+    // Nội dung int[] { con trỏ (id trận, 0 = mới nhất), số trận } -> user_matches_page từng trang;
+    // client cũ gửi null và nhận user_matches chỉ gồm HISTORY_LEGACY_MAX trận mới nhất
+    private void handleGetUserMatches(Message message) throws IOException, SQLException {
+        if (user == null || !isPageRequest(message.getContent())) {
+            rejectRequest(message);
+            return;
+        }
+        if (!(message.getContent() instanceof int[])) {
+            List<Match> matches = server.getHistoryCache().getUserMatches(user.getId(), 0,
+                    ServerConfig.HISTORY_LEGACY_MAX).getItems();
+            sendMessage(new Message("user_matches", matches));
+            return;
+        }
+        int[] request = (int[]) message.getContent();
+        ResultPage<Match> page = server.getHistoryCache().getUserMatches(user.getId(), request[0],
+                clampHistoryPage(request[1]));
+        sendMessage(new Message("user_matches_page",
+                new Object[] { request[0], page.getNextCursor(), page.getItems() }));
+    }
+
+    // null (client cũ) hoặc int[] { con trỏ, số dòng }
+    private static boolean isPageRequest(Object content) {
+        return content == null || (content instanceof int[] && ((int[]) content).length >= 2);
+    }
+
+    // Yêu cầu sai dạng (client lỗi hoặc gian lận) được trả lời bằng error thay vì làm đứt phiên
+    private void rejectRequest(Message message) {
+        System.out.println("Yêu cầu " + message.getType() + " không hợp lệ từ " + getDisplayName());
+        sendMessage(new Message("error", "Yêu cầu không hợp lệ"));
+    }
+
+    private static int clampHistoryPage(int size) {
+        return Math.max(1, Math.min(size, ServerConfig.HISTORY_PAGE_MAX));
     }
 
     private void handleQuitGame() throws IOException, SQLException {
-        if (gameRoom != null) {
-            gameRoom.handlePlayerQuit(this);
+        GameRoom room = gameRoom;
+        if (room != null) {
+            room.handlePlayerQuit(this);
         }
     }
 
-    private void handleGetMatchHistory() throws IOException, SQLException {
-        List<MatchDetails> history = dbManager.getUserMatchHistory(user.getId());
-        sendMessage(new Message("match_history", history));
+    // Như get_user_matches nhưng trả về các lượt sút của các trận trong trang (client cũ: match_history
+    // cũng chỉ gồm HISTORY_LEGACY_MAX trận mới nhất). Client đi kèm không gửi yêu cầu này, nó xem
+    // lượt sút của từng trận qua get_match_details; match_history_page dành cho client khác cần cả lịch sử
+    private void handleGetMatchHistory(Message message) throws IOException, SQLException {
+        if (user == null || !isPageRequest(message.getContent())) {
+            rejectRequest(message);
+            return;
+        }
+        if (!(message.getContent() instanceof int[])) {
+            List<MatchDetails> history = server.getHistoryCache().getUserMatchHistory(user.getId(), 0,
+                    ServerConfig.HISTORY_LEGACY_MAX).getItems();
+            sendMessage(new Message("match_history", history));
+            return;
+        }
+        int[] request = (int[]) message.getContent();
+        ResultPage<MatchDetails> page = server.getHistoryCache().getUserMatchHistory(user.getId(), request[0],
+                clampHistoryPage(request[1]));
+        sendMessage(new Message("match_history_page",
+                new Object[] { request[0], page.getNextCursor(), page.getItems() }));
     }
 
+    // Client cũ: chỉ nhận phần đầu bảng thay vì toàn bộ người chơi
+    // Mọi người nhận cùng một frame; chỉ dựng lại khi điểm hoặc trạng thái của ai đó đổi
     private void handleGetLeaderboard() throws IOException, SQLException {
-        List<User> leaderboard = dbManager.getLeaderboard();
-        sendMessage(new Message("leaderboard", leaderboard));
+        server.getResponseCache().send(this, "leaderboard", responseVersion(), () -> {
+            List<User> leaderboard = server.getPresence().overlay(
+                    server.getLeaderboard().top(ServerConfig.LEADERBOARD_PAGE_MAX));
+            return new Message("leaderboard", leaderboard);
+        });
+    }
+
+    // Cả hai nguồn chỉ tăng nên tổng của chúng tăng mỗi khi một trong hai đổi
+    private long responseVersion() {
+        return server.getLeaderboard().getVersion() + server.getPresence().getPublishedVersion();
+    }
+
+    // Nội dung: int[] { trang (từ 0), số dòng mỗi trang }
+    private void handleGetLeaderboardPage(Message message) {
+        if (user == null || !(message.getContent() instanceof int[]) || ((int[]) message.getContent()).length < 2) {
+            rejectRequest(message);
+            return;
+        }
+        int[] request = (int[]) message.getContent();
+        int size = clampPageSize(request[1]);
+        sendLeaderboardPage(Math.max(0, request[0]) * size, size);
+    }
+
+    // Nội dung: số dòng phía trên và phía dưới hạng của mình
+    private void handleGetLeaderboardAround(Message message) {
+        if (user == null || !(message.getContent() instanceof Integer)) {
+            rejectRequest(message);
+            return;
+        }
+        int radius = clampPageSize((int) message.getContent() * 2 + 1) / 2;
+        int rank = server.getLeaderboard().rankOf(user.getId());
+        sendLeaderboardPage(Math.max(0, rank - 1 - radius), radius * 2 + 1);
+    }
+
+    private static int clampPageSize(int size) {
+        return Math.max(1, Math.min(size, ServerConfig.LEADERBOARD_PAGE_MAX));
+    }
+
+    // Trả về Object[] { hạng của dòng đầu (từ 1), tổng số người chơi, hạng của mình, List<User> }
+    private void sendLeaderboardPage(int from, int size) {
+        Leaderboard leaderboard = server.getLeaderboard();
+        List<User> rows = server.getPresence().overlay(leaderboard.range(from, size));
+        sendMessage(new Message("leaderboard_page",
+                new Object[] { from + 1, leaderboard.size(), leaderboard.rankOf(user.getId()), rows }));
     }
 
     private void handlePlayAgainResponse(Message message) throws SQLException, IOException {
         boolean playAgain = (boolean) message.getContent();
-        if (gameRoom != null) {
-            gameRoom.handlePlayAgainResponse(playAgain, this);
+        GameRoom room = gameRoom;
+        if (room != null) {
+            room.handlePlayAgainResponse(playAgain, this);
         }
     }
 
@@ -250,15 +348,15 @@ public class ClientHandler implements Runnable {
         String password = credentials[1];
         Pair<User, Boolean> pairAuthnticatedUser = dbManager.authenticate(username, password);
         User _user = pairAuthnticatedUser.getKey();
-        Boolean isOffline = pairAuthnticatedUser.getValue();
-        if (_user != null && isOffline == true) {
+        // Trạng thái online lấy từ bộ nhớ, cột status trong MySQL có thể chưa kịp cập nhật
+        if (_user != null && server.getPresence().tryLogin(_user)) {
             this.user = _user;
-            dbManager.updateUserStatus(user.getId(), "online");
-            user.setStatus("online"); // Cập nhật trạng thái trong đối tượng user
+            server.getLeaderboard().ensure(user);
+            server.getSearchIndex().add(user);
             sendMessage(new Message("login_success", user));
-            server.broadcast(new Message("status_update", user.getUsername() + " đã online."));
             server.addClient(user.getId(), this); // Thêm client vào danh sách server
-        } else if (_user != null && isOffline == false) {
+            joinChatTopic(ChatTopics.LOBBY);
+        } else if (_user != null) {
             sendMessage(new Message("login_failure", "Tài khoản được đăng nhập ở nơi khác"));
         } else {
             sendMessage(new Message("login_failure", "Tài khoản hoặc mật khẩu không đúng"));
@@ -267,21 +365,75 @@ public class ClientHandler implements Runnable {
 
     private void handleLogout() throws IOException, SQLException {
         if (user != null) {
-            dbManager.updateUserStatus(user.getId(), "offline");
-            user.setStatus("offline");
-            server.broadcast(new Message("status_update", user.getUsername() + " đã offline."));
-            if (socket != null && !socket.isClosed()) {
+            server.getPresence().removeInterest(this);
+            server.getChat().unsubscribeAll(this);
+            server.getPresence().update(user, PresenceService.OFFLINE);
+            if (connection.isOpen()) {
                 sendMessage(new Message("logout_success", "Đăng xuất thành công."));
             }
             isRunning = false; // Dừng vòng lặp
             server.removeClient(this);
-            socket.close();
+            connection.close();
+        }
+    }
+
+    // Nội dung: phiên bản danh bạ client đang giữ (Long, 0 = chưa có) -> user_directory gồm
+    // Object[] { phiên bản mới, true nếu là toàn bộ danh bạ, List<User> đã đổi }; client cũ gửi null
+    private void handleGetUsers(Message message) throws IOException, SQLException {
+        if (user == null) {
+            rejectRequest(message);
+            return;
+        }
+        if (message.getContent() instanceof Long) {
+            Object[] directory = server.getLeaderboard().directorySince((Long) message.getContent());
+            @SuppressWarnings("unchecked")
+            List<User> users = (List<User>) directory[2];
+            server.getPresence().overlay(users);
+            sendMessage(new Message("user_directory", directory));
+            return;
+        }
+        server.getResponseCache().send(this, "user_list", responseVersion(), () -> {
+            Leaderboard leaderboard = server.getLeaderboard();
+            return new Message("user_list", server.getPresence().overlay(leaderboard.range(0, leaderboard.size())));
+        });
+    }
+
+    // Nội dung: Object[] { tiền tố tên, bộ lọc ("all", "online", "ingame"), con trỏ (null = trang đầu), số dòng }
+    // -> user_search_result: Object[] { tiền tố, bộ lọc, con trỏ đã yêu cầu, con trỏ trang sau (null = hết), List<User> }
+    private void handleSearchUsers(Message message) {
+        if (user == null || !isSearchRequest(message.getContent())) {
+            rejectRequest(message);
+            return;
+        }
+        Object[] request = (Object[]) message.getContent();
+        String prefix = request[0] != null ? ((String) request[0]).trim() : "";
+        String filter = request[1] != null ? (String) request[1] : UserSearchIndex.ALL;
+        String cursor = (String) request[2];
+        int size = Math.max(1, Math.min((int) request[3], ServerConfig.SEARCH_PAGE_MAX));
+        Pair<List<Integer>, String> page = server.getSearchIndex().search(prefix, filter, cursor, size);
+        List<User> users = new ArrayList<>(page.getKey().size());
+        for (int userId : page.getKey()) {
+            User found = server.getLeaderboard().get(userId);
+            if (found != null) {
+                users.add(found);
+            }
         }
+        server.getPresence().overlay(users);
+        sendMessage(new Message("user_search_result",
+                new Object[] { request[0], filter, cursor, page.getValue(), users }));
     }
 
-    private void handleGetUsers() throws IOException, SQLException {
-        List<User> users = dbManager.getUsers();
-        sendMessage(new Message("user_list", users));
+    private static boolean isSearchRequest(Object content) {
+        if (!(content instanceof Object[]) || ((Object[]) content).length < 4) {
+            return false;
+        }
+        Object[] request = (Object[]) content;
+        for (int i = 0; i < 3; i++) {
+            if (request[i] != null && !(request[i] instanceof String)) {
+                return false;
+            }
+        }
+        return request[3] instanceof Integer;
     }
 
     private void handleMatchRequest(Message message) throws IOException, SQLException {
@@ -289,9 +441,10 @@ public class ClientHandler implements Runnable {
         System.out.println("Received match request from user ID: " + user.getId() + " to opponent ID: " + opponentId);
         ClientHandler opponent = server.getClientById(opponentId);
         if (opponent != null) {
+            String opponentStatus = server.getPresence().getStatus(opponentId);
             System.out.println("Opponent found: " + opponent.getUser().getUsername() + " - Status: "
-                    + opponent.getUser().getStatus());
-            if (opponent.getUser().getStatus().equals("online")) {
+                    + opponentStatus);
+            if (opponentStatus.equals(PresenceService.ONLINE)) {
                 opponent.sendMessage(new Message("match_request", user.getId()));
                 System.out.println("Match request sent to " + opponent.getUser().getUsername());
             } else {
@@ -311,20 +464,23 @@ public class ClientHandler implements Runnable {
         ClientHandler requester = server.getClientById(requesterId);
         if (requester != null) {
             if (accepted) {
+                // Tạo trận trong MySQL trước; hàng đợi ghi trận đấu đầy thì không mở phòng mới
+                MatchWriter.MatchRecord record = server.getMatchWriter().startMatch(user.getId(), requester.user.getId());
+                if (record == null) {
+                    sendMessage(new Message("match_response", "Máy chủ đang bận, vui lòng thử lại sau."));
+                    requester.sendMessage(new Message("match_response", "Máy chủ đang bận, vui lòng thử lại sau."));
+                    return;
+                }
                 // Tạo phòng chơi giữa this và requester
-                GameRoom newGameRoom = new GameRoom(this, requester, dbManager);
+                GameRoom newGameRoom = new GameRoom(this, requester, record);
                 this.gameRoom = newGameRoom;
                 requester.gameRoom = newGameRoom;
+                joinChatTopic(newGameRoom.getChatTopic());
+                requester.joinChatTopic(newGameRoom.getChatTopic());
 
                 // update ingame status and broadcast all client --VIETHUNG--
-                this.user.setStatus("ingame");
-                requester.user.setStatus("ingame");
-
-                dbManager.updateUserStatus(user.getId(), "ingame");
-                requester.dbManager.updateUserStatus(user.getId(), "ingame");
-
-                server.broadcast(new Message("status_update", user.getUsername() + " is ingame"));
-                server.broadcast(new Message("status_update", requester.user.getUsername() + " is ingame"));
+                server.getPresence().update(user, PresenceService.INGAME);
+                server.getPresence().update(requester.user, PresenceService.INGAME);
 
                 newGameRoom.startMatch();
             } else {
@@ -333,49 +489,90 @@ public class ClientHandler implements Runnable {
         }
     }
 
+    // Client khai báo những người chơi đang hiển thị để chỉ nhận presence của họ
+    private void handlePresenceInterest(Message message) {
+        if (user != null && message.getContent() instanceof int[]) {
+            server.getPresence().setInterest(this, (int[]) message.getContent());
+        }
+    }
+
+    // Tin nhắn chỉ gửi tới người cùng chủ đề (cùng phòng chơi hoặc cùng ở phòng chờ).
+    // Nội dung dạng {userId, text} là tin nhắn riêng cho một người chơi.
     private void handleChat(Message message) {
-        // Gửi lại tin nhắn tới tất cả client
-        server.broadcast(new Message("chat", user.getUsername() + ": " + message.getContent()));
+        if (user == null) {
+            return;
+        }
+        if (message.getContent() instanceof Object[]) {
+            if (!isPrivateChat(message.getContent())) {
+                rejectRequest(message);
+                return;
+            }
+            Object[] data = (Object[]) message.getContent();
+            int targetId = (int) data[0];
+            ClientHandler target = server.getClientById(targetId);
+            if (target == null) {
+                sendMessage(new Message("chat", "Người chơi không online."));
+                return;
+            }
+            String topic = ChatTopics.privateTopic(user.getId(), targetId);
+            server.getChat().subscribe(topic, this);
+            server.getChat().subscribe(topic, target);
+            server.getChat().publish(topic, user.getUsername() + " (riêng): " + data[1]);
+            return;
+        }
+        String topic = chatTopic;
+        if (topic != null) {
+            server.getChat().publish(topic, user.getUsername() + ": " + message.getContent());
+        }
+    }
+
+    // Chat riêng: Object[] { id người nhận, nội dung }
+    private static boolean isPrivateChat(Object content) {
+        Object[] data = (Object[]) content;
+        return data.length >= 2 && data[0] instanceof Integer && data[1] instanceof String;
+    }
+
+    // Chuyển sang chủ đề chat khác và gửi lại các dòng gần nhất của chủ đề đó
+    private void joinChatTopic(String topic) {
+        String previous = chatTopic;
+        if (topic.equals(previous)) {
+            return;
+        }
+        chatTopic = topic;
+        if (previous != null) {
+            server.getChat().unsubscribe(previous, this);
+        }
+        List<String> recent = server.getChat().subscribe(topic, this);
+        if (!recent.isEmpty()) {
+            sendMessage(new Message("chat_history", recent.toArray(new String[0])));
+        }
     }
 
     private void handleShoot(Message message) throws SQLException, IOException {
-        if (gameRoom != null) {
+        GameRoom room = gameRoom;
+        if (room != null) {
             String shooterDir = (String) message.getContent();
-            gameRoom.handleShot(shooterDir, this);
+            room.handleShot(shooterDir, this);
         }
     }
 
     private void handleGoalkeeper(Message message) throws SQLException, IOException {
-        if (gameRoom != null) {
+        GameRoom room = gameRoom;
+        if (room != null) {
             String goalkeeperDir = (String) message.getContent();
-            gameRoom.handleGoalkeeper(goalkeeperDir, this);
+            room.handleGoalkeeper(goalkeeperDir, this);
         }
     }
 
     public void sendMessage(Message message) {
-        try {
-            if (socket != null && !socket.isClosed()) {
-                out.writeObject(message);
-                out.flush();
-            } else {
-                System.out.println(
-                        "Socket đã đóng, không thể gửi tin nhắn tới " + (user != null ? user.getUsername() : "client"));
-            }
-        } catch (IOException e) {
-            System.out.println("Lỗi khi gửi tin nhắn tới " + (user != null ? user.getUsername() : "client") + ": "
-                    + e.getMessage());
-            // Không gọi lại handleLogout() ở đây để tránh đệ quy
-            // Đánh dấu client là đã ngắt kết nối
-            try {
-                socket.close();
-            } catch (IOException ex) {
-                ex.printStackTrace();
-            }
-        }
+        connection.send(message);
     }
 
     public void clearGameRoom() {
         this.gameRoom = null;
+        if (user != null && isRunning) {
+            joinChatTopic(ChatTopics.LOBBY);
+        }
     }
 
     public Server getServer() {
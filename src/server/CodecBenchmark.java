@@ -0,0 +1,116 @@
+package server;
+
+import common.BinaryMessageCodec;
+import common.Match;
+import common.MatchDetails;
+import common.Message;
+import common.MessageCodec;
+import common.RoundResult;
+import common.SerializedMessageCodec;
+import common.User;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+
+// So sánh kích thước và thời gian encode/decode của giao thức nhị phân với Java serialization.
+// Chạy: java server.CodecBenchmark [số vòng lặp]
+public class CodecBenchmark {
+
+    public static void main(String[] args) throws IOException {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+
+        System.out.printf("%-16s %12s %12s %12s %12s %12s%n",
+                "type", "oos-fresh B", "oos-stream B", "binary B", "oos enc+dec", "bin enc+dec");
+        for (Supplier<Message> sample : sampleMessages()) {
+            Message message = sample.get();
+            int freshBytes = freshObjectStreamSize(message);
+            int streamBytes = steadyStateSize(new SerializedMessageCodec(), sample);
+            int binaryBytes = new BinaryMessageCodec().encode(message).length;
+            double serializedNs = roundTripNanos(SerializedMessageCodec::new, sample, iterations);
+            double binaryNs = roundTripNanos(BinaryMessageCodec::new, sample, iterations);
+            System.out.printf("%-16s %12d %12d %12d %10.0fns %10.0fns%n",
+                    message.getType(), freshBytes, streamBytes, binaryBytes, serializedNs, binaryNs);
+        }
+    }
+
+    // Kích thước khi mỗi tin nhắn dùng một ObjectOutputStream mới (gồm cả mô tả lớp)
+    private static int freshObjectStreamSize(Message message) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(message);
+        }
+        return bytes.size();
+    }
+
+    // Kích thước ở trạng thái ổn định của một kết nối đã gửi tin nhắn cùng loại trước đó
+    // (mô tả lớp đã nằm trong bảng handle, nhưng đối tượng là bản mới như trên server thật)
+    private static int steadyStateSize(MessageCodec codec, Supplier<Message> sample) throws IOException {
+        codec.encode(sample.get());
+        return codec.encode(sample.get()).length;
+    }
+
+    // Thời gian trung bình encode + decode một tin nhắn trên một kết nối giả lập
+    // (tin nhắn được tạo trước để không tính thời gian dựng đối tượng)
+    private static double roundTripNanos(Supplier<MessageCodec> factory, Supplier<Message> sample, int iterations)
+            throws IOException {
+        Message[] messages = new Message[iterations];
+        for (int i = 0; i < iterations; i++) {
+            messages[i] = sample.get();
+        }
+        for (int warmup = 0; warmup < 3; warmup++) {
+            runRoundTrips(factory, messages);
+        }
+        long start = System.nanoTime();
+        runRoundTrips(factory, messages);
+        return (System.nanoTime() - start) / (double) iterations;
+    }
+
+    private static void runRoundTrips(Supplier<MessageCodec> factory, Message[] messages) throws IOException {
+        MessageCodec sender = factory.get();
+        MessageCodec receiver = factory.get();
+        for (Message message : messages) {
+            if (receiver.decode(sender.encode(message)) == null) {
+                throw new IllegalStateException();
+            }
+        }
+    }
+
+    private static List<Supplier<Message>> sampleMessages() {
+        Timestamp now = new Timestamp(System.currentTimeMillis());
+        List<Supplier<Message>> samples = new ArrayList<>();
+        samples.add(() -> new Message("shoot", "Phải-Cao"));
+        samples.add(() -> new Message("update_score", new int[] { 3, 2, 5 }));
+        samples.add(() -> new Message("round_result", new RoundResult((byte) 5, (byte) 2, true, true, 3, 2, 5)));
+        samples.add(() -> new Message("chat", "player_1: chào bạn"));
+        samples.add(() -> new Message("login_success", new User(1, "player_1", 30, "online")));
+        samples.add(() -> new Message("match_response", new Object[] { 7, true }));
+        samples.add(() -> {
+            List<MatchDetails> details = new ArrayList<>();
+            for (int round = 1; round <= 10; round++) {
+                details.add(new MatchDetails(round, 42, round, 1, 2, "Trái-Cao", "Giữa-Thấp",
+                        round % 2 == 0 ? "win" : "lose", now));
+            }
+            return new Message("match_details", details);
+        });
+        samples.add(() -> {
+            List<Match> matches = new ArrayList<>();
+            for (int i = 1; i <= 20; i++) {
+                matches.add(new Match(i, 1, 2, i % 2 == 0 ? 1 : null, "player_1", "player_2", now, "normal"));
+            }
+            return new Message("user_matches", matches);
+        });
+        samples.add(() -> {
+            List<User> users = new ArrayList<>();
+            for (int i = 1; i <= 100; i++) {
+                users.add(new User(i, "player_" + i, i * 3, i % 3 == 0 ? "ingame" : "online"));
+            }
+            return new Message("user_list", users);
+        });
+        return samples;
+    }
+}
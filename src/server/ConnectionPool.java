@@ -0,0 +1,383 @@
+package server;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Pool kết nối JDBC có giới hạn. getConnection() trả về một Connection bọc lại: close() chỉ trả
+// kết nối về pool, nên chỗ gọi dùng try-with-resources như kết nối thường.
+// - Tối đa maxSize kết nối đang mượn; mượn quá borrowTimeout thì ném SQLException
+// - Kết nối nằm không lâu hơn validateIdleMillis được kiểm tra (isValid) trước khi đưa ra
+// - Kết nối bị giữ quá leakMillis được in cảnh báo kèm stack trace của chỗ mượn
+// - Mỗi kết nối giữ tối đa statementCacheSize PreparedStatement theo câu SQL (LRU): close() trên
+//   statement chỉ trả nó về cache, lần prepareStatement sau với cùng câu SQL dùng lại mà không
+//   phải parse lại ở driver. MySQL chỉ bỏ được bước parse khi URL bật useServerPrepStmts=true
+//   (xem DatabaseManager); khi đó maxSize * statementCacheSize phải nhỏ hơn max_prepared_stmt_count
+public class ConnectionPool {
+    private static final int VALIDATION_TIMEOUT_SECONDS = 2;
+
+    private final String url;
+    private final String user;
+    private final String password;
+    private final long borrowTimeoutMillis;
+    private final long validateIdleMillis;
+    private final long leakMillis;
+    private final int statementCacheSize;
+    private final Semaphore permits;
+    // Kết nối rảnh; lấy ra ở đầu (kết nối vừa dùng, còn "ấm") và trả vào đầu
+    private final LinkedBlockingDeque<PhysicalConnection> idle = new LinkedBlockingDeque<>();
+    private final ConcurrentHashMap<PhysicalConnection, Lease> leased = new ConcurrentHashMap<>();
+    private final AtomicInteger total = new AtomicInteger();
+    private final LongAdder borrows = new LongAdder();
+    private final LongAdder waitNanos = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+    private final LongAdder leaks = new LongAdder();
+    private final LongAdder discarded = new LongAdder();
+    private final LongAdder statementHits = new LongAdder();
+    private final LongAdder statementMisses = new LongAdder();
+    private final LongAdder statementEvictions = new LongAdder();
+
+    public ConnectionPool(String url, String user, String password, int minSize, int maxSize,
+            long borrowTimeoutMillis, long validateIdleMillis, long leakMillis, int statementCacheSize)
+            throws SQLException {
+        this.url = url;
+        this.user = user;
+        this.password = password;
+        this.borrowTimeoutMillis = borrowTimeoutMillis;
+        this.validateIdleMillis = validateIdleMillis;
+        this.leakMillis = leakMillis;
+        this.statementCacheSize = statementCacheSize;
+        this.permits = new Semaphore(maxSize, true);
+        for (int i = 0; i < Math.min(minSize, maxSize); i++) {
+            idle.add(open());
+        }
+        if (leakMillis > 0) {
+            ScheduledExecutorService checker = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "db-leak-check");
+                t.setDaemon(true);
+                return t;
+            });
+            long period = Math.max(1000, leakMillis / 2);
+            checker.scheduleWithFixedDelay(this::checkLeaks, period, period, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public Connection getConnection() throws SQLException {
+        long start = System.nanoTime();
+        try {
+            if (!permits.tryAcquire(borrowTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                timeouts.increment();
+                throw new SQLException("Hết " + borrowTimeoutMillis + "ms chờ kết nối MySQL (đang mượn "
+                        + leased.size() + "/" + total.get() + ")");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Bị ngắt khi chờ kết nối MySQL", e);
+        }
+        try {
+            PhysicalConnection physical = takeIdle();
+            if (physical == null) {
+                physical = open();
+            }
+            waitNanos.add(System.nanoTime() - start);
+            borrows.increment();
+            Lease lease = new Lease(physical);
+            leased.put(physical, lease);
+            return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                    new Class<?>[] { Connection.class }, lease);
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    // Lấy một kết nối rảnh còn dùng được; kết nối hỏng bị đóng và bỏ qua
+    private PhysicalConnection takeIdle() {
+        PhysicalConnection physical;
+        while ((physical = idle.pollFirst()) != null) {
+            if (System.currentTimeMillis() - physical.lastUsed < validateIdleMillis) {
+                return physical;
+            }
+            try {
+                if (physical.connection.isValid(VALIDATION_TIMEOUT_SECONDS)) {
+                    return physical;
+                }
+            } catch (SQLException e) {
+                // Coi như hỏng
+            }
+            discard(physical);
+        }
+        return null;
+    }
+
+    private PhysicalConnection open() throws SQLException {
+        PhysicalConnection physical = new PhysicalConnection(DriverManager.getConnection(url, user, password));
+        total.incrementAndGet();
+        return physical;
+    }
+
+    private void discard(PhysicalConnection physical) {
+        total.decrementAndGet();
+        discarded.increment();
+        try {
+            physical.connection.close();
+        } catch (SQLException e) {
+            // Kết nối đã hỏng sẵn
+        }
+    }
+
+    private void release(PhysicalConnection physical) {
+        leased.remove(physical);
+        boolean reusable;
+        try {
+            // Trả về đúng trạng thái ban đầu: transaction dở dang bị rollback
+            if (!physical.connection.getAutoCommit()) {
+                physical.connection.rollback();
+                physical.connection.setAutoCommit(true);
+            }
+            reusable = !physical.connection.isClosed();
+        } catch (SQLException e) {
+            reusable = false;
+        }
+        if (reusable) {
+            physical.lastUsed = System.currentTimeMillis();
+            idle.addFirst(physical);
+        } else {
+            discard(physical);
+        }
+        permits.release();
+    }
+
+    private void checkLeaks() {
+        long now = System.currentTimeMillis();
+        for (Lease lease : leased.values()) {
+            if (!lease.reported && now - lease.borrowedAt > leakMillis) {
+                lease.reported = true;
+                leaks.increment();
+                System.out.println("Kết nối MySQL bị giữ quá " + leakMillis + "ms bởi " + lease.borrower.getName());
+                lease.borrowStack.printStackTrace(System.out);
+            }
+        }
+    }
+
+    public int getActive() {
+        return leased.size();
+    }
+
+    public int getIdle() {
+        return idle.size();
+    }
+
+    public int getTotal() {
+        return total.get();
+    }
+
+    public long getBorrows() {
+        return borrows.sum();
+    }
+
+    // Thời gian chờ mượn trung bình (micro giây)
+    public long getAverageWaitMicros() {
+        long count = borrows.sum();
+        return count > 0 ? waitNanos.sum() / count / 1000 : 0;
+    }
+
+    public long getTimeouts() {
+        return timeouts.sum();
+    }
+
+    public long getLeaks() {
+        return leaks.sum();
+    }
+
+    public long getDiscarded() {
+        return discarded.sum();
+    }
+
+    public long getStatementHits() {
+        return statementHits.sum();
+    }
+
+    public long getStatementMisses() {
+        return statementMisses.sum();
+    }
+
+    public long getStatementEvictions() {
+        return statementEvictions.sum();
+    }
+
+    private class PhysicalConnection {
+        final Connection connection;
+        volatile long lastUsed = System.currentTimeMillis();
+        // Statement đang rảnh theo khóa (câu SQL + cờ generated keys), thứ tự truy cập cho LRU.
+        // Statement đang được dùng không nằm trong map nên hai lần prepare cùng câu SQL
+        // trong một lần mượn không nhận chung một statement.
+        private final LinkedHashMap<String, PreparedStatement> statements = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+                if (size() <= statementCacheSize) {
+                    return false;
+                }
+                statementEvictions.increment();
+                closeQuietly(eldest.getValue());
+                return true;
+            }
+        };
+        private final ReentrantLock statementLock = new ReentrantLock();
+
+        PhysicalConnection(Connection connection) {
+            this.connection = connection;
+        }
+
+        PreparedStatement checkout(String key) {
+            statementLock.lock();
+            try {
+                return statements.remove(key);
+            } finally {
+                statementLock.unlock();
+            }
+        }
+
+        void checkin(String key, PreparedStatement statement) {
+            statementLock.lock();
+            try {
+                PreparedStatement previous = statements.put(key, statement);
+                if (previous != null && previous != statement) {
+                    closeQuietly(previous);
+                }
+            } finally {
+                statementLock.unlock();
+            }
+        }
+    }
+
+    private static void closeQuietly(Statement statement) {
+        try {
+            statement.close();
+        } catch (SQLException e) {
+            // Statement/kết nối đã hỏng, không còn gì để dọn
+        }
+    }
+
+    // Lấy statement từ cache của kết nối hoặc prepare mới; trả về bản bọc mà close() đưa
+    // statement về cache
+    private PreparedStatement prepareCached(Object connectionProxy, PhysicalConnection physical,
+            String sql, int autoGeneratedKeys) throws SQLException {
+        String key = autoGeneratedKeys == Statement.RETURN_GENERATED_KEYS ? "K:" + sql : sql;
+        PreparedStatement statement = physical.checkout(key);
+        if (statement != null && !statement.isClosed()) {
+            statementHits.increment();
+        } else {
+            statementMisses.increment();
+            statement = physical.connection.prepareStatement(sql, autoGeneratedKeys);
+        }
+        PreparedStatement real = statement;
+        boolean[] closed = { false };
+        return (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(),
+                new Class<?>[] { PreparedStatement.class }, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "close":
+                            if (!closed[0]) {
+                                closed[0] = true;
+                                if (statementCacheSize > 0 && !real.isClosed()) {
+                                    // Bỏ tham số và lô cũ để lần dùng sau bắt đầu sạch
+                                    real.clearParameters();
+                                    real.clearBatch();
+                                    physical.checkin(key, real);
+                                } else {
+                                    real.close();
+                                }
+                            }
+                            return null;
+                        case "isClosed":
+                            return closed[0] || real.isClosed();
+                        case "getConnection":
+                            return connectionProxy;
+                        case "equals":
+                            return proxy == args[0];
+                        case "hashCode":
+                            return System.identityHashCode(proxy);
+                        case "toString":
+                            return "Cached[" + real + "]";
+                        default:
+                            if (closed[0]) {
+                                throw new SQLException("Statement đã đóng");
+                            }
+                            try {
+                                return method.invoke(real, args);
+                            } catch (InvocationTargetException e) {
+                                throw e.getCause();
+                            }
+                    }
+                });
+    }
+
+    // Một lần mượn: chuyển mọi lời gọi tới kết nối thật, close() trả kết nối về pool đúng một lần
+    private class Lease implements InvocationHandler {
+        final PhysicalConnection physical;
+        final long borrowedAt = System.currentTimeMillis();
+        final Thread borrower = Thread.currentThread();
+        // Chỉ chụp stack trace khi bật phát hiện rò rỉ
+        final Throwable borrowStack = leakMillis > 0 ? new Throwable("Chỗ mượn kết nối") : null;
+        volatile boolean reported;
+        private boolean closed;
+
+        Lease(PhysicalConnection physical) {
+            this.physical = physical;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    if (!closed) {
+                        closed = true;
+                        release(physical);
+                    }
+                    return null;
+                case "isClosed":
+                    return closed || physical.connection.isClosed();
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "Pooled[" + physical.connection + "]";
+                default:
+                    if (closed) {
+                        throw new SQLException("Kết nối đã được trả về pool");
+                    }
+                    if ("prepareStatement".equals(method.getName())) {
+                        if (args.length == 1) {
+                            return prepareCached(proxy, physical, (String) args[0], Statement.NO_GENERATED_KEYS);
+                        }
+                        if (args.length == 2 && args[1] instanceof Integer) {
+                            return prepareCached(proxy, physical, (String) args[0], (Integer) args[1]);
+                        }
+                    }
+                    try {
+                        return method.invoke(physical.connection, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+            }
+        }
+    }
+}
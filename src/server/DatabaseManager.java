@@ -3,10 +3,12 @@ package server;
 import common.Match;
 import common.User;
 import common.MatchDetails;
+import common.Moves;
 
 import java.sql.*;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import javafx.util.Pair;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
@@ -14,14 +16,33 @@ import java.util.Base64;
 
 public class DatabaseManager {
 
-    private static final String URL = "jdbc:mysql://localhost:3306/penalty_shootout";
+    // Gửi cả lô INSERT/UPDATE trong một câu lệnh. useServerPrepStmts: PreparedStatement được prepare
+    // trên MySQL (COM_STMT_PREPARE) nên statement do ConnectionPool giữ lại không bị parse lại; mặc định
+    // driver chỉ thay tham số vào chuỗi SQL ở phía client. Cache của driver tắt vì pool đã tự cache.
+    private static final String URL = "jdbc:mysql://localhost:3306/penalty_shootout"
+            + "?rewriteBatchedStatements=true&useServerPrepStmts=true&cachePrepStmts=false";
     private static final String USER = "root"; 
     private static final String PASSWORD = ""; 
 
-    private Connection conn;
+    // Mỗi phương thức mượn một kết nối trong thời gian chạy câu lệnh, nên truy vấn chậm của
+    // người này không chặn đăng nhập hay ghi trận đấu của người khác
+    private final ConnectionPool pool;
+
+    // Lượt sút lưu nước đi bằng mã Moves (shot, save) và kết quả bằng 0/1 (goal); trận lưu lý do kết
+    // thúc bằng mã (end_code). Các cột chuỗi cũ (shooter_direction, goalkeeper_direction, result,
+    // end_reason) còn được ghi song song tới khi StorageMigration chuyển xong dữ liệu cũ và được phép xóa chúng.
+    private static final String[] END_REASONS = { "unknown", "normal", "player_quit" };
+    private volatile boolean legacyKickColumns;
+    private volatile boolean legacyMatchColumns;
 
     public DatabaseManager() throws SQLException {
-        conn = DriverManager.getConnection(URL, USER, PASSWORD);
+        pool = new ConnectionPool(URL, USER, PASSWORD, ServerConfig.DB_POOL_MIN, ServerConfig.DB_POOL_MAX,
+                ServerConfig.DB_BORROW_TIMEOUT_MILLIS, ServerConfig.DB_VALIDATE_IDLE_MILLIS, ServerConfig.DB_LEAK_MILLIS,
+                ServerConfig.DB_STATEMENT_CACHE);
+    }
+
+    public ConnectionPool getPool() {
+        return pool;
     }
 
     // ===== HASH MẬT KHẨU =====
@@ -37,245 +58,537 @@ public class DatabaseManager {
     }
 
     // ===== PHƯƠNG THỨC ĐĂNG KÝ =====
-    public boolean registerUser(String username, String password) throws SQLException {
-        // Kiểm tra username đã tồn tại chưa
-        String checkQuery = "SELECT COUNT(*) FROM users WHERE username = ?";
-        PreparedStatement checkStmt = conn.prepareStatement(checkQuery);
-        checkStmt.setString(1, username);
-        ResultSet rs = checkStmt.executeQuery();
-        
-        if (rs.next() && rs.getInt(1) > 0) {
-            return false; // Username đã tồn tại
-        }
+    // Trả về người chơi vừa tạo, null nếu tên đăng nhập đã tồn tại
+    public User registerUser(String username, String password) throws SQLException {
+        try (Connection conn = pool.getConnection()) {
+            // Kiểm tra username đã tồn tại chưa
+            String checkQuery = "SELECT COUNT(*) FROM users WHERE username = ?";
+            try (PreparedStatement checkStmt = conn.prepareStatement(checkQuery)) {
+                checkStmt.setString(1, username);
+                try (ResultSet rs = checkStmt.executeQuery()) {
+                    if (rs.next() && rs.getInt(1) > 0) {
+                        return null; // Username đã tồn tại
+                    }
+                }
+            }
 
-        // Hash mật khẩu trước khi lưu
-        String hashedPassword = hashPassword(password);
+            // Hash mật khẩu trước khi lưu
+            String hashedPassword = hashPassword(password);
 
-        // Insert user mới
-        String insertQuery = "INSERT INTO users (username, password, points, status) VALUES (?, ?, 0, 'offline')";
-        PreparedStatement insertStmt = conn.prepareStatement(insertQuery);
-        insertStmt.setString(1, username);
-        insertStmt.setString(2, hashedPassword);
-        
-        int rowsAffected = insertStmt.executeUpdate();
-        return rowsAffected > 0;
+            // Insert user mới
+            String insertQuery = "INSERT INTO users (username, password, points, status) VALUES (?, ?, 0, 'offline')";
+            try (PreparedStatement insertStmt = conn.prepareStatement(insertQuery, Statement.RETURN_GENERATED_KEYS)) {
+                insertStmt.setString(1, username);
+                insertStmt.setString(2, hashedPassword);
+
+                insertStmt.executeUpdate();
+                try (ResultSet keys = insertStmt.getGeneratedKeys()) {
+                    return keys.next() ? new User(keys.getInt(1), username, 0, "offline") : null;
+                }
+            }
+        }
     }
 
     // ===== PHƯƠNG THỨC ĐĂNG NHẬP (ĐÃ CẬP NHẬT) =====
     public Pair<User, Boolean> authenticate(String username, String password) throws SQLException {
-        // Hash mật khẩu để so sánh
-        String hashedPassword = hashPassword(password);
+        try (Connection conn = pool.getConnection()) {
+            // Hash mật khẩu để so sánh
+            String hashedPassword = hashPassword(password);
         
-        String query = "SELECT * FROM users WHERE username = ? AND password = ?";
-        PreparedStatement stmt = conn.prepareStatement(query);
-        stmt.setString(1, username);
-        stmt.setString(2, hashedPassword);
-        ResultSet rs = stmt.executeQuery();
-        
-        if (rs.next()) {
-            User authenticatedUser = new User(
-                    rs.getInt("id"),
-                    rs.getString("username"),
-                    rs.getInt("points"),
-                    rs.getString("status"));
-            Boolean isOffline = rs.getString("status").equals("offline");
-            return new Pair<>(authenticatedUser, isOffline);
+            String query = "SELECT * FROM users WHERE username = ? AND password = ?";
+            try (PreparedStatement stmt = conn.prepareStatement(query)) {
+                stmt.setString(1, username);
+                stmt.setString(2, hashedPassword);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    if (rs.next()) {
+                        User authenticatedUser = new User(
+                                rs.getInt("id"),
+                                rs.getString("username"),
+                                rs.getInt("points"),
+                                rs.getString("status"));
+                        Boolean isOffline = rs.getString("status").equals("offline");
+                        return new Pair<>(authenticatedUser, isOffline);
+                    }
+                }
+            }
+            return new Pair<>(null, null);
         }
-        return new Pair<>(null, null);
     }
 
     // Cập nhật trạng thái người dùng
     public void updateUserStatus(int userId, String status) throws SQLException {
-        String query = "UPDATE users SET status = ? WHERE id = ?";
-        PreparedStatement stmt = conn.prepareStatement(query);
-        stmt.setString(1, status);
-        stmt.setInt(2, userId);
-        stmt.executeUpdate();
+        try (Connection conn = pool.getConnection()) {
+            String query = "UPDATE users SET status = ? WHERE id = ?";
+            try (PreparedStatement stmt = conn.prepareStatement(query)) {
+                stmt.setString(1, status);
+                stmt.setInt(2, userId);
+                stmt.executeUpdate();
+            }
+        }
     }
 
-    // Lấy danh sách người chơi
-    public List<User> getUsers() throws SQLException {
-        List<User> users = new ArrayList<>();
-        String query = "SELECT * FROM users";
-        Statement stmt = conn.createStatement();
-        ResultSet rs = stmt.executeQuery(query);
-        while (rs.next()) {
-            users.add(new User(
-                    rs.getInt("id"),
-                    rs.getString("username"),
-                    rs.getInt("points"),
-                    rs.getString("status")));
+    // Ghi một lô trạng thái trong một lần gửi xuống MySQL
+    public void updateUserStatuses(Map<Integer, String> statuses) throws SQLException {
+        try (Connection conn = pool.getConnection()) {
+            String query = "UPDATE users SET status = ? WHERE id = ?";
+            try (PreparedStatement stmt = conn.prepareStatement(query)) {
+                for (Map.Entry<Integer, String> entry : statuses.entrySet()) {
+                    stmt.setString(1, entry.getValue());
+                    stmt.setInt(2, entry.getKey());
+                    stmt.addBatch();
+                }
+                stmt.executeBatch();
+            }
         }
-        return users;
     }
 
-    // Lưu lịch sử đấu
-    public int saveMatch(int player1Id, int player2Id, int winnerId) throws SQLException {
-        String query = "INSERT INTO matches (player1_id, player2_id, winner_id) VALUES (?, ?, ?)";
-        PreparedStatement stmt = conn.prepareStatement(query, Statement.RETURN_GENERATED_KEYS);
-        stmt.setInt(1, player1Id);
-        stmt.setInt(2, player2Id);
-        if (winnerId > 0) {
-            stmt.setInt(3, winnerId);
-        } else {
-            stmt.setNull(3, Types.INTEGER);
+    // Đưa mọi người chơi về offline khi server khởi động (trạng thái sót lại từ lần chạy trước)
+    public void resetUserStatuses() throws SQLException {
+        try (Connection conn = pool.getConnection()) {
+            String query = "UPDATE users SET status = 'offline' WHERE status <> 'offline'";
+            try (PreparedStatement stmt = conn.prepareStatement(query)) {
+                stmt.executeUpdate();
+            }
         }
-        stmt.executeUpdate();
-        ResultSet rs = stmt.getGeneratedKeys();
-        if (rs.next()) {
-            return rs.getInt(1);
+    }
+
+    // Ghi một lô sự kiện trận đấu trong một transaction: tạo trận mới (lấy id), chèn các lượt sút,
+    // cập nhật kết quả và điểm. Chỉ được gọi từ thread của MatchWriter.
+    public void writeMatchEvents(List<MatchWriter.MatchRecord> starts, List<MatchWriter.Kick> kicks,
+            List<MatchWriter.MatchEnd> ends) throws SQLException {
+        try (Connection conn = pool.getConnection()) {
+            conn.setAutoCommit(false);
+            if (!starts.isEmpty()) {
+                String query = "INSERT INTO matches (player1_id, player2_id, winner_id) VALUES (?, ?, NULL)";
+                try (PreparedStatement stmt = conn.prepareStatement(query, Statement.RETURN_GENERATED_KEYS)) {
+                    for (MatchWriter.MatchRecord record : starts) {
+                        stmt.setInt(1, record.player1Id);
+                        stmt.setInt(2, record.player2Id);
+                        stmt.addBatch();
+                    }
+                    stmt.executeBatch();
+                    try (ResultSet rs = stmt.getGeneratedKeys()) {
+                        for (MatchWriter.MatchRecord record : starts) {
+                            if (!rs.next()) {
+                                throw new SQLException("Thiếu id của trận vừa tạo");
+                            }
+                            record.matchId = rs.getInt(1);
+                        }
+                    }
+                }
+            }
+            if (!kicks.isEmpty()) {
+                boolean legacy = legacyKickColumns;
+                String query = legacy
+                        ? "INSERT INTO match_details (match_id, round, shooter_id, goalkeeper_id, shot, save, goal, shooter_direction, goalkeeper_direction, result) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)"
+                        : "INSERT INTO match_details (match_id, round, shooter_id, goalkeeper_id, shot, save, goal) VALUES (?, ?, ?, ?, ?, ?, ?)";
+                try (PreparedStatement stmt = conn.prepareStatement(query)) {
+                    for (MatchWriter.Kick kick : kicks) {
+                        stmt.setInt(1, kick.record.matchId);
+                        stmt.setInt(2, kick.round);
+                        stmt.setInt(3, kick.shooterId);
+                        stmt.setInt(4, kick.goalkeeperId);
+                        stmt.setInt(5, Moves.encode(kick.shooterDirection));
+                        stmt.setInt(6, Moves.encode(kick.goalkeeperDirection));
+                        stmt.setBoolean(7, "win".equals(kick.result));
+                        if (legacy) {
+                            stmt.setString(8, kick.shooterDirection);
+                            stmt.setString(9, kick.goalkeeperDirection);
+                            stmt.setString(10, kick.result);
+                        }
+                        stmt.addBatch();
+                    }
+                    stmt.executeBatch();
+                }
+            }
+            if (!ends.isEmpty()) {
+                boolean legacy = legacyMatchColumns;
+                String winnerQuery = legacy
+                        ? "UPDATE matches SET winner_id = ?, end_code = ?, end_reason = ? WHERE id = ?"
+                        : "UPDATE matches SET winner_id = ?, end_code = ? WHERE id = ?";
+                String pointsQuery = "UPDATE users SET points = points + ? WHERE id = ?";
+                try (PreparedStatement winnerStmt = conn.prepareStatement(winnerQuery);
+                        PreparedStatement pointsStmt = conn.prepareStatement(pointsQuery)) {
+                    boolean anyPoints = false;
+                    for (MatchWriter.MatchEnd end : ends) {
+                        winnerStmt.setInt(1, end.winnerId);
+                        winnerStmt.setInt(2, encodeEndReason(end.endReason));
+                        if (legacy) {
+                            winnerStmt.setString(3, end.endReason);
+                            winnerStmt.setInt(4, end.record.matchId);
+                        } else {
+                            winnerStmt.setInt(3, end.record.matchId);
+                        }
+                        winnerStmt.addBatch();
+                        if (end.winnerId != 0) {
+                            pointsStmt.setInt(1, end.points);
+                            pointsStmt.setInt(2, end.winnerId);
+                            pointsStmt.addBatch();
+                            anyPoints = true;
+                        }
+                    }
+                    winnerStmt.executeBatch();
+                    if (anyPoints) {
+                        pointsStmt.executeBatch();
+                    }
+                }
+            }
+            conn.commit();
+            // Lỗi trước khi commit: pool rollback khi nhận lại kết nối
         }
-        return -1;
     }
 
-    // Cập nhật người chiến thắng vào lịch sử đấu
-    public void updateMatchWinner(int matchId, int winnerId, String endReason) throws SQLException {
-        String query = "UPDATE matches SET winner_id = ?, end_reason = ? WHERE id = ?";
-        PreparedStatement stmt = conn.prepareStatement(query);
-        stmt.setInt(1, winnerId);
-        stmt.setString(2, endReason);
-        stmt.setInt(3, matchId);
-        stmt.executeUpdate();
+    // Lấy lịch sử đấu theo match ID, kèm cờ trận đã kết thúc (khi đó các lượt sút không còn thay đổi).
+    // Đọc dòng matches trước: nếu trận đã kết thúc thì mọi lượt sút đã được commit từ trước đó.
+    public Pair<List<MatchDetails>, Boolean> getMatchDetails(int matchId) throws SQLException {
+        try (Connection conn = pool.getConnection()) {
+            List<MatchDetails> detailsList = new ArrayList<>();
+            String endReason = null;
+            int winnerId = 0;
+            int player1Id = 0;
+            int player2Id = 0;
+            String matchQuery = "SELECT * FROM matches WHERE id = ?";
+            try (PreparedStatement matchStmt = conn.prepareStatement(matchQuery)) {
+                matchStmt.setInt(1, matchId);
+                try (ResultSet matchRs = matchStmt.executeQuery()) {
+                    if (matchRs.next()) {
+                        endReason = readEndReason(matchRs);
+                        winnerId = matchRs.getInt("winner_id");
+                        player1Id = matchRs.getInt("player1_id");
+                        player2Id = matchRs.getInt("player2_id");
+                    }
+                }
+            }
+            String query = "SELECT *, timestamp AS time FROM match_details WHERE match_id = ?";
+            try (PreparedStatement stmt = conn.prepareStatement(query)) {
+                stmt.setInt(1, matchId);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        detailsList.add(readKick(rs));
+                    }
+                }
+            }
+            // Kiểm tra lý do kết thúc trận đấu
+            if (detailsList.isEmpty() && "player_quit".equals(endReason)) {
+                // Tạo MatchDetails để hiển thị lý do
+                int quitterId = (winnerId == player1Id) ? player2Id : player1Id;
+                detailsList.add(new MatchDetails(
+                        0, // id
+                        matchId,
+                        0, // round
+                        quitterId,
+                        0, // goalkeeperId
+                        null,
+                        null,
+                        "Player quit",
+                        null));
+            }
+            return new Pair<>(detailsList, endReason != null);
+        }
     }
 
-    // Cập nhật điểm số
-    public void updateUserPoints(int userId, int points) throws SQLException {
-        String query = "UPDATE users SET points = points + ? WHERE id = ?";
-        PreparedStatement stmt = conn.prepareStatement(query);
-        stmt.setInt(1, points);
-        stmt.setInt(2, userId);
-        stmt.executeUpdate();
+    // Các phương thức khác như lấy lịch sử đấu, bảng xếp hạng, v.v.
+    public List<User> getLeaderboard() throws SQLException {
+        try (Connection conn = pool.getConnection()) {
+            List<User> users = new ArrayList<>();
+            String query = "SELECT * FROM users ORDER BY points DESC";
+            try (PreparedStatement stmt = conn.prepareStatement(query);
+                    ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    users.add(new User(
+                            rs.getInt("id"),
+                            rs.getString("username"),
+                            rs.getInt("points"),
+                            rs.getString("status")));
+                }
+            }
+            return users;
+        }
     }
 
-    // Phương thức lưu chi tiết trận đấu
-    public void saveMatchDetails(int matchId, int round, int shooterId, int goalkeeperId, String shooterDirection,
-            String goalkeeperDirection, String result) throws SQLException {
-        String query = "INSERT INTO match_details (match_id, round, shooter_id, goalkeeper_id, shooter_direction, goalkeeper_direction, result) VALUES (?, ?, ?, ?, ?, ?, ?)";
-        PreparedStatement stmt = conn.prepareStatement(query);
-        stmt.setInt(1, matchId);
-        stmt.setInt(2, round);
-        stmt.setInt(3, shooterId);
-        stmt.setInt(4, goalkeeperId);
-        stmt.setString(5, shooterDirection);
-        stmt.setString(6, goalkeeperDirection);
-        stmt.setString(7, result);
-        stmt.executeUpdate();
+    // Id các trận của người chơi có id < beforeMatchId, mới nhất trước, tối đa limit trận.
+    // Tách hai nhánh player1/player2 để mỗi nhánh đi theo index (player_id, id) thay vì quét cả bảng.
+    private static final String USER_MATCH_IDS = "SELECT id FROM ("
+            + "(SELECT id FROM matches WHERE player1_id = ? AND id < ? ORDER BY id DESC LIMIT ?) "
+            + "UNION "
+            + "(SELECT id FROM matches WHERE player2_id = ? AND id < ? ORDER BY id DESC LIMIT ?)"
+            + ") ids ORDER BY id DESC LIMIT ?";
+
+    private static void bindUserMatchIds(PreparedStatement stmt, int userId, int beforeMatchId, int limit)
+            throws SQLException {
+        int before = beforeMatchId > 0 ? beforeMatchId : Integer.MAX_VALUE;
+        stmt.setInt(1, userId);
+        stmt.setInt(2, before);
+        stmt.setInt(3, limit);
+        stmt.setInt(4, userId);
+        stmt.setInt(5, before);
+        stmt.setInt(6, limit);
+        stmt.setInt(7, limit);
     }
 
-    // Lấy lịch sử đấu theo match ID
-    public List<MatchDetails> getMatchDetails(int matchId) throws SQLException {
-        List<MatchDetails> detailsList = new ArrayList<>();
-        String query = "SELECT *, timestamp AS time FROM match_details WHERE match_id = ?";
-        PreparedStatement stmt = conn.prepareStatement(query);
-        stmt.setInt(1, matchId);
-        ResultSet rs = stmt.executeQuery();
-        while (rs.next()) {
-            detailsList.add(new MatchDetails(
-                    rs.getInt("id"),
-                    rs.getInt("match_id"),
-                    rs.getInt("round"),
-                    rs.getInt("shooter_id"),
-                    rs.getInt("goalkeeper_id"),
-                    rs.getString("shooter_direction"),
-                    rs.getString("goalkeeper_direction"),
-                    rs.getString("result"),
-                    rs.getTimestamp("time")));
+    // Lấy lịch sử đấu chi tiết theo UserID: các lượt sút của tối đa matchLimit trận trước beforeMatchId
+    // (0 = từ trận mới nhất)
+    public ResultPage<MatchDetails> getUserMatchHistory(int userId, int beforeMatchId, int matchLimit)
+            throws SQLException {
+        try (Connection conn = pool.getConnection()) {
+            List<MatchDetails> history = new ArrayList<>();
+            // LEFT JOIN để trận không có lượt sút nào (thoát sớm) vẫn được tính vào trang
+            String query = "SELECT page.id AS page_match_id, md.*, md.timestamp AS time FROM ("
+                    + USER_MATCH_IDS + ") page "
+                    + "LEFT JOIN match_details md ON md.match_id = page.id "
+                    + "ORDER BY page.id DESC, md.round ASC";
+            int matches = 0;
+            int lastMatchId = 0;
+            try (PreparedStatement stmt = conn.prepareStatement(query)) {
+                bindUserMatchIds(stmt, userId, beforeMatchId, matchLimit);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        int pageMatchId = rs.getInt("page_match_id");
+                        if (pageMatchId != lastMatchId) {
+                            matches++;
+                            lastMatchId = pageMatchId;
+                        }
+                        if (rs.getObject("id") == null) {
+                            continue;
+                        }
+                        history.add(readKick(rs));
+                    }
+                }
+            }
+            return new ResultPage<>(history, matches == matchLimit ? lastMatchId : 0);
         }
-        if (detailsList.isEmpty()) {
-            // Kiểm tra lý do kết thúc trận đấu
-            String matchQuery = "SELECT winner_id, player1_id, player2_id, end_reason FROM matches WHERE id = ?";
-            PreparedStatement matchStmt = conn.prepareStatement(matchQuery);
-            matchStmt.setInt(1, matchId);
-            ResultSet matchRs = matchStmt.executeQuery();
-            if (matchRs.next()) {
-                String endReason = matchRs.getString("end_reason");
-                int winnerId = matchRs.getInt("winner_id");
-                int player1Id = matchRs.getInt("player1_id");
-                int player2Id = matchRs.getInt("player2_id");
-                if ("player_quit".equals(endReason)) {
-                    // Tạo MatchDetails để hiển thị lý do
-                    int quitterId = (winnerId == player1Id) ? player2Id : player1Id;
-                    detailsList.add(new MatchDetails(
-                            0, // id
-                            matchId,
-                            0, // round
-                            quitterId,
-                            0, // goalkeeperId
-                            null,
-                            null,
-                            "Player quit",
-                            null));
+    }
+
+    // Lấy lịch sử đấu theo UserID: tối đa limit trận trước beforeMatchId (0 = từ trận mới nhất)
+    public ResultPage<Match> getUserMatches(int userId, int beforeMatchId, int limit) throws SQLException {
+        try (Connection conn = pool.getConnection()) {
+            List<Match> matches = new ArrayList<>();
+            String query = "SELECT m.*, m.timestamp AS time, u1.username AS player1_name, u2.username AS player2_name FROM ("
+                    + USER_MATCH_IDS + ") page "
+                    + "JOIN matches m ON m.id = page.id "
+                    + "JOIN users u1 ON m.player1_id = u1.id "
+                    + "JOIN users u2 ON m.player2_id = u2.id "
+                    + "ORDER BY m.id DESC";
+            try (PreparedStatement stmt = conn.prepareStatement(query)) {
+                bindUserMatchIds(stmt, userId, beforeMatchId, limit);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        matches.add(new Match(
+                                rs.getInt("id"),
+                                rs.getInt("player1_id"),
+                                rs.getInt("player2_id"),
+                                rs.getObject("winner_id") != null ? rs.getInt("winner_id") : null,
+                                rs.getString("player1_name"),
+                                rs.getString("player2_name"),
+                                rs.getTimestamp("time"),
+                                readEndReason(rs)
+                        ));
+                    }
                 }
             }
+            int nextCursor = matches.size() == limit ? matches.get(matches.size() - 1).getId() : 0;
+            return new ResultPage<>(matches, nextCursor);
         }
-        return detailsList;
     }
 
-    // Các phương thức khác như lấy lịch sử đấu, bảng xếp hạng, v.v.
-    public List<User> getLeaderboard() throws SQLException {
-        List<User> users = new ArrayList<>();
-        String query = "SELECT * FROM users ORDER BY points DESC";
-        Statement stmt = conn.createStatement();
-        ResultSet rs = stmt.executeQuery(query);
-        while (rs.next()) {
-            users.add(new User(
-                    rs.getInt("id"),
-                    rs.getString("username"),
-                    rs.getInt("points"),
-                    rs.getString("status")));
+    // ===== LƯU TRỮ DẠNG MÃ =====
+
+    // Gọi một lần khi khởi động, trước khi ghi trận đấu: thêm các cột mã nếu chưa có (thêm cột
+    // nullable là thao tác online trên InnoDB) và xem các cột chuỗi cũ còn hay không
+    public void prepareCompactStorage() throws SQLException {
+        try (Connection conn = pool.getConnection()) {
+            DatabaseMetaData meta = conn.getMetaData();
+            try (Statement stmt = conn.createStatement()) {
+                if (!hasColumn(meta, "match_details", "shot")) {
+                    stmt.executeUpdate("ALTER TABLE match_details ADD COLUMN shot TINYINT NULL, "
+                            + "ADD COLUMN save TINYINT NULL, ADD COLUMN goal TINYINT(1) NULL");
+                }
+                if (!hasColumn(meta, "matches", "end_code")) {
+                    stmt.executeUpdate("ALTER TABLE matches ADD COLUMN end_code TINYINT NULL");
+                }
+            }
+            legacyKickColumns = hasColumn(meta, "match_details", "shooter_direction");
+            legacyMatchColumns = hasColumn(meta, "matches", "end_reason");
         }
-        return users;
     }
 
-    // Lấy lịch sử đấu chi tiết theo UserID
-    public List<MatchDetails> getUserMatchHistory(int userId) throws SQLException {
-        List<MatchDetails> history = new ArrayList<>();
-        String query = "SELECT md.*, md.timestamp AS time FROM match_details md "
-                + "JOIN matches m ON md.match_id = m.id "
-                + "WHERE m.player1_id = ? OR m.player2_id = ? ORDER BY md.match_id DESC, md.round ASC";
-        PreparedStatement stmt = conn.prepareStatement(query);
-        stmt.setInt(1, userId);
-        stmt.setInt(2, userId);
-        ResultSet rs = stmt.executeQuery();
-        while (rs.next()) {
-            history.add(new MatchDetails(
-                    rs.getInt("id"),
-                    rs.getInt("match_id"),
-                    rs.getInt("round"),
-                    rs.getInt("shooter_id"),
-                    rs.getInt("goalkeeper_id"),
-                    rs.getString("shooter_direction"),
-                    rs.getString("goalkeeper_direction"),
-                    rs.getString("result"),
-                    rs.getTimestamp("time")
-            ));
+    public boolean hasLegacyColumns() {
+        return legacyKickColumns || legacyMatchColumns;
+    }
+
+    // Chuyển tối đa limit lượt sút cũ có id > afterId sang dạng mã trong một transaction (cả những dòng
+    // lần trước chưa chuyển được). Trả về id lớn nhất đã xét, 0 nếu không còn dòng nào.
+    public int migrateKicks(int afterId, int limit) throws SQLException {
+        if (!legacyKickColumns) {
+            return 0;
+        }
+        try (Connection conn = pool.getConnection()) {
+            conn.setAutoCommit(false);
+            int lastId = 0;
+            String select = "SELECT id, shooter_direction, goalkeeper_direction, result FROM match_details "
+                    + "WHERE id > ? AND (shot IS NULL OR shot < 0 OR save < 0 OR goal IS NULL) ORDER BY id LIMIT ?";
+            String update = "UPDATE match_details SET shot = ?, save = ?, goal = ? WHERE id = ?";
+            try (PreparedStatement selectStmt = conn.prepareStatement(select);
+                    PreparedStatement updateStmt = conn.prepareStatement(update)) {
+                selectStmt.setInt(1, afterId);
+                selectStmt.setInt(2, limit);
+                try (ResultSet rs = selectStmt.executeQuery()) {
+                    while (rs.next()) {
+                        lastId = rs.getInt("id");
+                        // Chuỗi không nhận ra được lưu là -1 (nước đi) hoặc NULL (kết quả); các dòng này
+                        // vẫn đọc từ cột chuỗi và chặn việc xóa cột
+                        updateStmt.setInt(1, Moves.encodeIgnoreCase(rs.getString("shooter_direction")));
+                        updateStmt.setInt(2, Moves.encodeIgnoreCase(rs.getString("goalkeeper_direction")));
+                        String result = rs.getString("result");
+                        if ("win".equalsIgnoreCase(result) || "lose".equalsIgnoreCase(result)) {
+                            updateStmt.setBoolean(3, "win".equalsIgnoreCase(result));
+                        } else {
+                            updateStmt.setNull(3, Types.TINYINT);
+                        }
+                        updateStmt.setInt(4, lastId);
+                        updateStmt.addBatch();
+                    }
+                }
+                if (lastId != 0) {
+                    updateStmt.executeBatch();
+                }
+            }
+            conn.commit();
+            return lastId;
         }
-        return history;
     }
 
-    // Lấy lịch sử đấu theo UserID
-    public List<Match> getUserMatches(int userId) throws SQLException {
-        List<Match> matches = new ArrayList<>();
-        String query = "SELECT m.*, m.timestamp AS time, u1.username AS player1_name, u2.username AS player2_name FROM matches m "
-                + "JOIN users u1 ON m.player1_id = u1.id "
-                + "JOIN users u2 ON m.player2_id = u2.id "
-                + "WHERE m.player1_id = ? OR m.player2_id = ? ORDER BY m.id DESC";
-        PreparedStatement stmt = conn.prepareStatement(query);
-        stmt.setInt(1, userId);
-        stmt.setInt(2, userId);
-        ResultSet rs = stmt.executeQuery();
-        while (rs.next()) {
-            matches.add(new Match(
-                    rs.getInt("id"),
-                    rs.getInt("player1_id"),
-                    rs.getInt("player2_id"),
-                    rs.getObject("winner_id") != null ? rs.getInt("winner_id") : null,
-                    rs.getString("player1_name"),
-                    rs.getString("player2_name"),
-                    rs.getTimestamp("time"),
-                    rs.getString("end_reason")
-            ));
+    // Như migrateKicks cho lý do kết thúc của các trận đã kết thúc
+    public int migrateMatches(int afterId, int limit) throws SQLException {
+        if (!legacyMatchColumns) {
+            return 0;
+        }
+        try (Connection conn = pool.getConnection()) {
+            conn.setAutoCommit(false);
+            int lastId = 0;
+            String select = "SELECT id, end_reason FROM matches "
+                    + "WHERE id > ? AND (end_code IS NULL OR end_code = 0) AND end_reason IS NOT NULL ORDER BY id LIMIT ?";
+            String update = "UPDATE matches SET end_code = ? WHERE id = ?";
+            try (PreparedStatement selectStmt = conn.prepareStatement(select);
+                    PreparedStatement updateStmt = conn.prepareStatement(update)) {
+                selectStmt.setInt(1, afterId);
+                selectStmt.setInt(2, limit);
+                try (ResultSet rs = selectStmt.executeQuery()) {
+                    while (rs.next()) {
+                        lastId = rs.getInt("id");
+                        updateStmt.setInt(1, encodeEndReason(rs.getString("end_reason")));
+                        updateStmt.setInt(2, lastId);
+                        updateStmt.addBatch();
+                    }
+                }
+                if (lastId != 0) {
+                    updateStmt.executeBatch();
+                }
+            }
+            conn.commit();
+            return lastId;
+        }
+    }
+
+    // Số dòng mà các cột mã chưa thay thế được cột chuỗi: chưa chuyển, hoặc có giá trị cũ không nhận ra
+    public long countUnmappedLegacyRows() throws SQLException {
+        long count = 0;
+        try (Connection conn = pool.getConnection();
+                Statement stmt = conn.createStatement()) {
+            if (legacyKickColumns) {
+                count += count(stmt, "SELECT COUNT(*) FROM match_details WHERE shot IS NULL OR shot < 0 "
+                        + "OR save < 0 OR goal IS NULL");
+            }
+            if (legacyMatchColumns) {
+                count += count(stmt, "SELECT COUNT(*) FROM matches WHERE end_reason IS NOT NULL "
+                        + "AND (end_code IS NULL OR end_code = 0)");
+            }
+        }
+        return count;
+    }
+
+    private static long count(Statement stmt, String query) throws SQLException {
+        try (ResultSet rs = stmt.executeQuery(query)) {
+            return rs.next() ? rs.getLong(1) : 0;
+        }
+    }
+
+    // Xóa các cột chuỗi khi mọi dòng đã có mã. ALGORITHM=INPLACE dựng lại bảng (thu hồi dung lượng)
+    // mà vẫn cho đọc/ghi đồng thời. Câu lệnh đang chạy với cột cũ có thể lỗi một lần trong khoảng giữa
+    // lúc xóa và lúc đổi cờ; MatchWriter sẽ thử lại.
+    public void dropLegacyColumns() throws SQLException {
+        try (Connection conn = pool.getConnection();
+                Statement stmt = conn.createStatement()) {
+            if (legacyKickColumns) {
+                stmt.executeUpdate("ALTER TABLE match_details DROP COLUMN shooter_direction, "
+                        + "DROP COLUMN goalkeeper_direction, DROP COLUMN result, ALGORITHM=INPLACE, LOCK=NONE");
+                legacyKickColumns = false;
+            }
+            if (legacyMatchColumns) {
+                stmt.executeUpdate("ALTER TABLE matches DROP COLUMN end_reason, ALGORITHM=INPLACE, LOCK=NONE");
+                legacyMatchColumns = false;
+            }
+        }
+    }
+
+    private static boolean hasColumn(DatabaseMetaData meta, String table, String column) throws SQLException {
+        try (ResultSet rs = meta.getColumns(meta.getConnection().getCatalog(), null, table, column)) {
+            return rs.next();
+        }
+    }
+
+    // Dòng chưa được chuyển (shot NULL) vẫn đọc từ các cột chuỗi
+    private MatchDetails readKick(ResultSet rs) throws SQLException {
+        String shooterDirection;
+        String goalkeeperDirection;
+        String result;
+        boolean coded = rs.getObject("shot") != null;
+        // Giá trị cũ không nhận ra (-1/NULL) thì đọc từ cột chuỗi khi cột còn
+        boolean mapped = coded && rs.getInt("shot") >= 0 && rs.getInt("save") >= 0 && rs.getObject("goal") != null;
+        if (mapped || (coded && !legacyKickColumns)) {
+            shooterDirection = decodeMove(rs.getInt("shot"));
+            goalkeeperDirection = decodeMove(rs.getInt("save"));
+            result = rs.getObject("goal") == null ? null : rs.getBoolean("goal") ? "win" : "lose";
+        } else if (legacyKickColumns) {
+            shooterDirection = rs.getString("shooter_direction");
+            goalkeeperDirection = rs.getString("goalkeeper_direction");
+            result = rs.getString("result");
+        } else {
+            shooterDirection = null;
+            goalkeeperDirection = null;
+            result = null;
+        }
+        return new MatchDetails(
+                rs.getInt("id"),
+                rs.getInt("match_id"),
+                rs.getInt("round"),
+                rs.getInt("shooter_id"),
+                rs.getInt("goalkeeper_id"),
+                shooterDirection,
+                goalkeeperDirection,
+                result,
+                rs.getTimestamp("time"));
+    }
+
+    // null nếu trận chưa kết thúc
+    private String readEndReason(ResultSet rs) throws SQLException {
+        if (rs.getObject("end_code") != null && (rs.getInt("end_code") != 0 || !legacyMatchColumns)) {
+            int code = rs.getInt("end_code");
+            return code > 0 && code < END_REASONS.length ? END_REASONS[code] : END_REASONS[0];
+        }
+        return legacyMatchColumns ? rs.getString("end_reason") : null;
+    }
+
+    private static String decodeMove(int code) {
+        return Moves.isValid(code) ? Moves.decode(code) : null;
+    }
+
+    private static int encodeEndReason(String endReason) {
+        for (int i = 1; i < END_REASONS.length; i++) {
+            if (endReason != null && END_REASONS[i].equalsIgnoreCase(endReason.trim())) {
+                return i;
+            }
         }
-        return matches;
+        return 0;
     }
-}
\ No newline at end of file
+}
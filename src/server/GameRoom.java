@@ -1,36 +1,52 @@
 package server;
 
 import common.Message;
-import java.io.IOException;
-import java.sql.SQLException;
-import java.util.Random;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ScheduledFuture;
+import common.Moves;
+import common.RoundResult;
+import rules.PenaltyMatch;
+import java.util.Arrays;
+import java.util.List;
+import java.util.random.RandomGenerator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class GameRoom {
 
     private ClientHandler shooterHandler;
     private ClientHandler goalkeeperHandler;
-    private DatabaseManager dbManager;
-    private int matchId;
-    private int shooterScore;
-    private int goalkeeperScore;
-    private int currentRound;
-    private final int MAX_ROUNDS = 10;
-    private final int WIN_SCORE = 5;
+    private final PresenceService presence;
+    // Trận hiện tại trong MySQL; mọi lần ghi đi qua MatchWriter
+    private final MatchWriter writer;
+    private MatchWriter.MatchRecord record;
+    // Luật, tỷ số và lượt đá do engine giữ; phòng chỉ lo mạng và lưu trữ
+    private final RandomGenerator random = RandomGenerator.getDefault();
+    private final PenaltyMatch match;
     private String shooterDirection;
     private Boolean shooterWantsRematch = null;
     private Boolean goalkeeperWantsRematch = null;
     // Thời gian chờ cho mỗi lượt (ví dụ: 15 giây)
     private final int TURN_TIMEOUT = 15;
-
-    private ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(2);
-
-    // Biến lưu trữ Future của nhiệm vụ chờ
-    private ScheduledFuture<?> shooterTimeoutTask;
-    private ScheduledFuture<?> goalkeeperTimeoutTask;
+    // Điểm cộng cho người thắng
+    private static final int WIN_POINTS = 3;
+    // Gửi thay cho kết quả khi kết thúc trận không ghi được vào MySQL
+    private static final String RESULT_NOT_SAVED = "Không lưu được kết quả trận đấu, trận này không được tính.";
+
+    // Bộ hẹn giờ dùng chung của server, phòng không tự tạo thread
+    private final TimerWheel timer;
+
+    // Các hẹn giờ đang chờ của phòng
+    private TimerWheel.Timeout shooterTimeoutTask;
+    private TimerWheel.Timeout goalkeeperTimeoutTask;
+    private TimerWheel.Timeout playAgainPromptTask;
+    private TimerWheel.Timeout playAgainReplyTask;
+    // Tăng mỗi khi bắt đầu một lượt; hạn của lượt cũ đến muộn sẽ bị bỏ qua
+    private int turnSeq;
+    // Phòng đã đóng (có người thoát/mất kết nối, hoặc không chơi lại): sự kiện còn trong hộp thư bị bỏ qua
+    private boolean closed;
+    // Kết quả của trận hiện tại đã được gửi cho MatchWriter; thoát lúc chờ chơi lại không tính thêm điểm
+    private boolean matchEnded;
 
     // Biến để kiểm tra xem người chơi đã thực hiện hành động chưa
     private boolean shooterActionReceived = false;
@@ -41,31 +57,82 @@ public class GameRoom {
     private ClientHandler player1;
     private ClientHandler player2;
 
-    public GameRoom(ClientHandler player1, ClientHandler player2, DatabaseManager dbManager) throws SQLException {
-        this.dbManager = dbManager;
+    private static final AtomicInteger NEXT_ROOM_ID = new AtomicInteger();
+    private final int roomId = NEXT_ROOM_ID.incrementAndGet();
+    // Chủ đề chat của phòng, giữ nguyên qua các lần chơi lại
+    private final String chatTopic = ChatTopics.roomTopic(roomId);
+
+    // Phòng là một actor: mọi sự kiện (nước đi, hết giờ, thoát, chơi lại) được xếp vào hộp thư
+    // và xử lý lần lượt trên shard cố định của phòng, nên trạng thái phòng không cần khóa.
+    private final Executor mailbox;
+    private final Server server;
+
+    // record: trận đầu tiên, đã được MatchWriter nhận (startMatch không trả về null)
+    public GameRoom(ClientHandler player1, ClientHandler player2, MatchWriter.MatchRecord record) {
+        this.server = player1.getServer();
+        this.presence = player1.getServer().getPresence();
+        this.timer = player1.getServer().getTimer();
+        this.mailbox = player1.getServer().getRoomShards().shardFor(roomId);
+        this.writer = player1.getServer().getMatchWriter();
         this.player1 = player1;
         this.player2 = player2;
-        
-        this.matchId = dbManager.saveMatch(player1.getUser().getId(), player2.getUser().getId(), 0);
-        this.shooterScore = 0;
-        this.goalkeeperScore = 0;
-        this.currentRound = 1;
+        this.record = record;
 
         // Random chọn người sút và người bắt
-        if (new Random().nextBoolean()) {
-            this.shooterHandler = player1;
-            this.goalkeeperHandler = player2;
-        } else {
-            this.shooterHandler = player2;
-            this.goalkeeperHandler = player1;
-        }
+        this.match = new PenaltyMatch(random, random.nextBoolean() ? 0 : 1);
+        updateRoles();
+    }
+
+    private ClientHandler playerAt(int index) {
+        return index == 0 ? player1 : player2;
+    }
+
+    // Người sút/bắt của lượt tiếp theo theo engine
+    private void updateRoles() {
+        shooterHandler = playerAt(match.getShooter());
+        goalkeeperHandler = playerAt(match.getGoalkeeper());
     }
 
+    public String getChatTopic() {
+        return chatTopic;
+    }
+
+    // ===== Các sự kiện gửi vào hộp thư của phòng =====
+
     public void startMatch() {
+        mailbox.execute(this::beginMatch);
+    }
+
+    public void handleShot(String shooterDirection, ClientHandler shooter) {
+        mailbox.execute(() -> onShot(shooterDirection, shooter));
+    }
+
+    public void handleGoalkeeper(String goalkeeperDirection, ClientHandler goalkeeper) {
+        mailbox.execute(() -> onGoalkeeper(goalkeeperDirection, goalkeeper));
+    }
+
+    public void handlePlayAgainResponse(boolean playAgain, ClientHandler responder) {
+        mailbox.execute(() -> onPlayAgainResponse(playAgain, responder));
+    }
+
+    public void handlePlayerDisconnect(ClientHandler disconnectedPlayer) {
+        mailbox.execute(() -> onPlayerDisconnect(disconnectedPlayer));
+    }
+
+    public void handlePlayerQuit(ClientHandler quittingPlayer) {
+        mailbox.execute(() -> onPlayerQuit(quittingPlayer));
+    }
+
+    // ===== Xử lý trên shard của phòng =====
+
+    private void beginMatch() {
+        if (closed) {
+            return;
+        }
         try {
-            // update ingame status for both player
-            shooterHandler.getUser().setStatus("ingame");
-            goalkeeperHandler.getUser().setStatus("ingame");
+            // update ingame status for both player (khi chơi lại, endMatch đã đưa về online)
+            presence.update(shooterHandler.getUser(), PresenceService.INGAME);
+            presence.update(goalkeeperHandler.getUser(), PresenceService.INGAME);
 
             // to do gui message neu can
             String shooterMessage = "Trận đấu bắt đầu! Bạn là người sút.";
@@ -80,7 +147,7 @@ public class GameRoom {
 
     private void requestNextMove() { 
         try {
-            if (checkEndGame()) {
+            if (match.isFinished()) {
                 endMatch();
                 return;
             }
@@ -92,21 +159,59 @@ public class GameRoom {
             shooterActionReceived = false;
             shooterDirection = null;
             goalkeeperDirection = null;
+            shooterTimeoutTask = startTurnDeadline(true);
 
         } catch (Exception e) {
             e.printStackTrace();
         }
     }
 
+    // Server giữ hạn của mỗi lượt: gửi thời điểm hết hạn cho client (chỉ để hiển thị)
+    // và tự chọn nước mặc định nếu hết hạn mà người chơi chưa đi. Hạn thực tế trên server
+    // dài hơn một khoảng ân hạn để bù độ trễ mạng.
+    private TimerWheel.Timeout startTurnDeadline(boolean shooterTurn) {
+        int token = ++turnSeq;
+        long now = System.currentTimeMillis();
+        long deadline = now + TURN_TIMEOUT * 1000L;
+        Message deadlineMessage = new Message("turn_deadline", new Object[] { deadline, now });
+        shooterHandler.sendMessage(deadlineMessage);
+        goalkeeperHandler.sendMessage(deadlineMessage);
+        return timer.schedule(() -> mailbox.execute(() -> onTurnDeadline(token, shooterTurn)),
+                TURN_TIMEOUT * 1000L + ServerConfig.TURN_GRACE_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    private void onTurnDeadline(int token, boolean shooterTurn) {
+        if (closed || token != turnSeq) {
+            return;
+        }
+        if (shooterTurn) {
+            startShooterTimeout();
+        } else {
+            startGoalkeeperTimeout();
+        }
+    }
+
 
     // Xử lý hướng sút từ người sút
-    public synchronized void handleShot(String shooterDirection, ClientHandler shooter)
-            throws SQLException, IOException {
+    private void onShot(String shooterDirection, ClientHandler shooter) {
+        // Nước đi đến muộn sau khi trận đã ngã ngũ hoặc phòng đã đóng thì bỏ qua
+        if (closed || match.isFinished()) {
+            return;
+        }
+        // Chỉ người sút của lượt này được sút, và chỉ một lần (sút lại không được kéo dài hạn của lượt)
+        if (shooter != shooterHandler || shooterActionReceived) {
+            return;
+        }
+        applyShot(normalizeMove(shooterDirection));
+    }
+
+    // Nhận hướng sút (của người chơi hoặc nước mặc định khi hết giờ) và chuyển sang lượt người bắt
+    private void applyShot(String shooterDirection) {
         this.shooterDirection = shooterDirection;
         shooterActionReceived = true;
 
         if (shooterTimeoutTask != null && !shooterTimeoutTask.isDone()) {
-            shooterTimeoutTask.cancel(true);
+            shooterTimeoutTask.cancel();
         }
 
         // CHỈ CẦN GỬI CHO GOALKEEPER
@@ -114,105 +219,51 @@ public class GameRoom {
         shooterHandler.sendMessage(new Message("opponent_turn", TURN_TIMEOUT));
 
         goalkeeperActionReceived = false;
+        goalkeeperTimeoutTask = startTurnDeadline(false);
     }
 
    
     // Xử lý hướng chặn từ người bắt
-    public synchronized void handleGoalkeeper(String goalkeeperDirection, ClientHandler goalkeeper)
-            throws SQLException, IOException {
-        if (this.shooterDirection == null) {
-            shooterHandler.sendMessage(new Message("error", "Hướng sút chưa được thiết lập."));
-            goalkeeperHandler.sendMessage(new Message("error", "Hướng sút chưa được thiết lập."));
+    private void onGoalkeeper(String goalkeeperDirection, ClientHandler goalkeeper) {
+        if (closed || match.isFinished()) {
             return;
         }
+        // Chỉ người bắt của lượt này, một lần, và sau khi người sút đã chọn hướng
+        if (goalkeeper != goalkeeperHandler || goalkeeperActionReceived || this.shooterDirection == null) {
+            return;
+        }
+        applyGoalkeeper(normalizeMove(goalkeeperDirection));
+    }
+
+    // Nhận hướng chặn (của người chơi hoặc nước mặc định khi hết giờ) và tính kết quả lượt sút
+    private void applyGoalkeeper(String goalkeeperDirection) {
         this.goalkeeperDirection = goalkeeperDirection;
         goalkeeperActionReceived = true;
 
         if (goalkeeperTimeoutTask != null && !goalkeeperTimeoutTask.isDone()) {
-            goalkeeperTimeoutTask.cancel(true);
+            goalkeeperTimeoutTask.cancel();
         }
 
-        // Parse hướng và độ cao
-        String[] shootParts = shooterDirection.split("-");
-        String shootDir = shootParts[0];      // Trái/Giữa/Phải
-        String shootHeight = shootParts[1];   // Thấp/Cao
-
-        String[] keeperParts = goalkeeperDirection.split("-");
-        String keeperDir = keeperParts[0];
-        String keeperHeight = keeperParts[1];
-
-        // Xác định kết quả
-        boolean goal = false;
-
-        if (shootDir.equalsIgnoreCase(keeperDir)) {
-            // Đúng hướng
-            if (shootHeight.equalsIgnoreCase(keeperHeight)) {
-                // Đúng cả hướng và độ cao → Chặn được
-                goal = false;
-            } else {
-                // Đúng hướng nhưng sai độ cao → 50% cơ hội
-                Random random = new Random();
-                goal = random.nextBoolean();
-            }
-        } else {
-            // Sai hướng → Ghi bàn
-            goal = true;
-        }
-
-        // Cập nhật điểm số ĐÚNG
-        if (goal) {
-            if (shooterHandler == player1) {
-                shooterScore++; // player1 ghi bàn
-            } else {
-                goalkeeperScore++; // player2 ghi bàn
-            }
-        }
-
-        // GỬI MESSAGE ĐỂ TRIGGER ANIMATION
-        String animationData = shooterDirection + "|" + goalkeeperDirection + "|" + goal;
-
-        if (goal) {
-            shooterHandler.sendMessage(new Message("animate_shoot_vao", animationData));
-            goalkeeperHandler.sendMessage(new Message("animate_shoot_vao", animationData));
-        } else {
-            shooterHandler.sendMessage(new Message("animate_shoot_khong_vao", animationData));
-            goalkeeperHandler.sendMessage(new Message("animate_shoot_khong_vao", animationData));
-        }
-
-        // Gửi kết quả
-        String kick_result = (goal ? "win" : "lose") + "-" + shooterDirection + "-" + goalkeeperDirection;
-        shooterHandler.sendMessage(new Message("kick_result", kick_result));
-        goalkeeperHandler.sendMessage(new Message("kick_result", kick_result));
+        // Engine xác định kết quả và cập nhật tỷ số
+        int round = match.getKicks() + 1;
+        boolean goal = match.kick((byte) Moves.encode(shooterDirection), (byte) Moves.encode(goalkeeperDirection));
 
         // Lưu chi tiết
-        dbManager.saveMatchDetails(matchId, currentRound,
-                shooterHandler.getUser().getId(),
-                goalkeeperHandler.getUser().getId(),
-                shooterDirection, goalkeeperDirection, goal ? "win" : "lose");
-
-        // Gửi tỷ số cập nhật
-        if (shooterHandler == player1) {
-            shooterHandler.sendMessage(new Message("update_score", 
-                new int[] { shooterScore, goalkeeperScore, currentRound }));
-            goalkeeperHandler.sendMessage(new Message("update_score", 
-                new int[] { goalkeeperScore, shooterScore, currentRound }));
-        } else {
-            shooterHandler.sendMessage(new Message("update_score", 
-                new int[] { goalkeeperScore, shooterScore, currentRound }));
-            goalkeeperHandler.sendMessage(new Message("update_score", 
-                new int[] { shooterScore, goalkeeperScore, currentRound }));
-        }
+        int shooterId = shooterHandler.getUser().getId();
+        int goalkeeperId = goalkeeperHandler.getUser().getId();
+        String shot = shooterDirection;
+        String save = goalkeeperDirection;
+        String result = goal ? "win" : "lose";
+        writer.recordKick(record, round, shooterId, goalkeeperId, shot, save, result);
 
-        // Tăng round TRƯỚC
-        currentRound++;
+        // Mỗi người chơi nhận đúng một frame kết quả lượt (tỷ số của mình trước)
+        sendRoundResult(player1, 0, shot, save, goal, round);
+        sendRoundResult(player2, 1, shot, save, goal, round);
 
-        // SWAP vai trò SAU
-        ClientHandler temp = shooterHandler;
-        shooterHandler = goalkeeperHandler;
-        goalkeeperHandler = temp;
+        // Đổi vai cho lượt sau
+        updateRoles();
 
-        // Kiểm tra kết thúc SAU KHI đã tăng round và swap
-        if (checkEndGame()) {
+        if (match.isFinished()) {
             determineWinner();
         } else {
             // Reset và chuyển lượt
@@ -224,126 +275,184 @@ public class GameRoom {
         }
     }
 
-    private void determineWinner() throws SQLException, IOException {
+    private void sendRoundResult(ClientHandler player, int index, String shot, String save,
+            boolean goal, int round) {
+        int yourScore = match.getScore(index);
+        int opponentScore = match.getScore(1 - index);
+        RoundResult result = new RoundResult((byte) Moves.encode(shot), (byte) Moves.encode(save), goal,
+                player == shooterHandler, yourScore, opponentScore, round);
+        // Client cũ không có lớp RoundResult: vẫn nhận các tin nhắn rời như trước
+        List<Message> legacyMessages = Arrays.asList(
+                new Message(goal ? "animate_shoot_vao" : "animate_shoot_khong_vao", shot + "|" + save + "|" + goal),
+                new Message("kick_result", (goal ? "win" : "lose") + "-" + shot + "-" + save),
+                new Message("update_score", new int[] { yourScore, opponentScore, round }));
+        server.sendTo(player, new Message("round_result", result), legacyMessages);
+    }
+
+    // Nước đi không đúng dạng (client lỗi/gian lận) được thay bằng nước mặc định
+    private static String normalizeMove(String move) {
+        return Moves.encode(move) >= 0 ? move : Moves.decode(PenaltyMatch.DEFAULT_MOVE);
+    }
+
+    private void determineWinner() {
+        if (matchEnded) {
+            return;
+        }
+        matchEnded = true;
         int winnerId = 0;
         String resultMessage = "";
         String endReason = "normal";
 
-        if (shooterScore > goalkeeperScore) {
-            winnerId = player1.getUser().getId();
-            resultMessage = player1.getUser().getUsername() + " thắng trận đấu!";
-        } else if (goalkeeperScore > shooterScore) {
-            winnerId = player2.getUser().getId();
-            resultMessage = player2.getUser().getUsername() + " thắng trận đấu!";
+        int winnerIndex = match.getWinner();
+        if (winnerIndex >= 0) {
+            winnerId = playerAt(winnerIndex).getUser().getId();
+            resultMessage = playerAt(winnerIndex).getUser().getUsername() + " thắng trận đấu!";
         } else {
             resultMessage = "Trận đấu hòa!";
         }
 
-        if (winnerId != 0) {
-            dbManager.updateUserPoints(winnerId, 3);
-        }
-        dbManager.updateMatchWinner(matchId, winnerId, endReason);
-
-        // Thông báo kết quả trận đấu cho cả hai người chơi
-        player1.sendMessage(new Message("match_result", 
-            (shooterScore > goalkeeperScore) ? "win" : (shooterScore < goalkeeperScore) ? "lose" : "draw"));
-        player2.sendMessage(new Message("match_result", 
-            (goalkeeperScore > shooterScore) ? "win" : (goalkeeperScore < shooterScore) ? "lose" : "draw"));
+        // Thông báo kết quả trận đấu cho cả hai người chơi sau khi kết quả và điểm đã được ghi
+        afterWritten(writer.endMatch(record, winnerId, endReason, WIN_POINTS), () -> {
+            // Có người thoát trong lúc chờ ghi: họ đã nhận match_end từ nhánh thoát
+            if (closed) {
+                return;
+            }
+            player1.sendMessage(new Message("match_result",
+                winnerIndex == 0 ? "win" : winnerIndex == 1 ? "lose" : "draw"));
+            player2.sendMessage(new Message("match_result",
+                winnerIndex == 1 ? "win" : winnerIndex == 0 ? "lose" : "draw"));
+
+            // Gửi tin nhắn yêu cầu chơi lại sau 3 giây (bị hủy nếu một người thoát trước đó)
+            playAgainPromptTask = timer.schedule(() -> mailbox.execute(() -> {
+                if (closed) {
+                    return;
+                }
+                shooterHandler.sendMessage(new Message("play_again_request", "Bạn có muốn chơi lại không?"));
+                goalkeeperHandler.sendMessage(new Message("play_again_request", "Bạn có muốn chơi lại không?"));
+                // Không trả lời kịp thì coi như không chơi lại, để phòng không mở mãi
+                playAgainReplyTask = timer.schedule(() -> mailbox.execute(this::onPlayAgainTimeout),
+                        ServerConfig.REMATCH_REPLY_SECONDS, TimeUnit.SECONDS);
+            }), 3, TimeUnit.SECONDS);
+        }, () -> {
+            // Kết quả chưa được lưu: không báo là kết quả cuối cùng, đóng phòng
+            if (!closed) {
+                closeRoom(RESULT_NOT_SAVED);
+            }
+        });
+    }
 
-        // Tạo một ScheduledExecutorService để trì hoãn việc gửi tin nhắn
-        ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(1);
-        scheduler.schedule(() -> {
-            // Gửi tin nhắn yêu cầu chơi lại sau 5 giây
-            shooterHandler.sendMessage(new Message("play_again_request", "Bạn có muốn chơi lại không?"));
-            goalkeeperHandler.sendMessage(new Message("play_again_request", "Bạn có muốn chơi lại không?"));
-            // Đóng scheduler sau khi hoàn tất
-            scheduler.shutdown();
-        }, 3, TimeUnit.SECONDS);
+    // Chạy onSaved trên hộp thư của phòng khi kết thúc trận đã được commit; nếu ghi thất bại hẳn
+    // (lỗi đã được MatchWriter in ra) thì chạy onFailed để người chơi không bị treo.
+    private void afterWritten(CompletableFuture<Void> written, Runnable onSaved, Runnable onFailed) {
+        written.whenComplete((ignored, error) -> {
+            if (error == null) {
+                mailbox.execute(onSaved);
+                return;
+            }
+            System.out.println("Phòng " + roomId + ": kết quả trận chưa được lưu: " + error.getMessage());
+            mailbox.execute(onFailed);
+        });
     }
 
     // Xử lý yêu cầu chơi lại
-    public synchronized void handlePlayAgainResponse(boolean playAgain, ClientHandler responder)
-            throws SQLException, IOException {
+    private void onPlayAgainResponse(boolean playAgain, ClientHandler responder) {
+        // Một trong hai người chơi đã thoát
+        if (closed) {
+            return;
+        }
         if (responder == player1) {
             shooterWantsRematch = playAgain;
         } else if (responder == player2) {
             goalkeeperWantsRematch = playAgain;
         }
 
-        // Kiểm tra nếu một trong hai người chơi đã thoát
-        if (shooterHandler == null || goalkeeperHandler == null) {
-            return;
-        }
-
         // Kiểm tra nếu cả hai người chơi đã phản hồi
         if (shooterWantsRematch != null && goalkeeperWantsRematch != null) {
             if (shooterWantsRematch && goalkeeperWantsRematch) {
                 // Cả hai người chơi đồng ý chơi lại
+                if (playAgainReplyTask != null) {
+                    playAgainReplyTask.cancel();
+                }
+                // Tạo trận mới trong MySQL; hàng đợi ghi đầy thì không mở thêm trận
+                MatchWriter.MatchRecord next = writer.startMatch(player1.getUser().getId(), player2.getUser().getId());
+                if (next == null) {
+                    closeRoom("Máy chủ đang bận, không thể chơi lại lúc này.");
+                    return;
+                }
+                record = next;
                 resetGameState();
-                startMatch();
+                beginMatch();
             } else {
-                // cap nhat status "ingame" -> "online"
-                player1.getUser().setStatus("online");
-                player2.getUser().setStatus("online");
+                closeRoom("Trận đấu kết thúc.");
+            }
+        }
+    }
 
-                dbManager.updateUserStatus(player1.getUser().getId(), "online");
-                dbManager.updateUserStatus(player2.getUser().getId(), "online");
+    // Hết thời gian chờ trả lời chơi lại: đóng phòng như khi có người từ chối
+    private void onPlayAgainTimeout() {
+        if (closed || !matchEnded) {
+            return;
+        }
+        closeRoom("Hết thời gian chờ chơi lại. Trận đấu kết thúc.");
+    }
 
-                player1.getServer().broadcast(new Message("status_update", player1.getUser().getUsername() + " is online"));
-                player2.getServer().broadcast(new Message("status_update", player2.getUser().getUsername() + " is online"));
-                // ------------------------------------------------------------//
+    // Đóng phòng khi cả hai người chơi còn kết nối và đưa họ về màn hình chính
+    private void closeRoom(String endMessage) {
+        closed = true;
+        cancelTimers();
+        // cap nhat status "ingame" -> "online"
+        presence.update(player1.getUser(), PresenceService.ONLINE);
+        presence.update(player2.getUser(), PresenceService.ONLINE);
+        // ------------------------------------------------------------//
 
-                // Gửi thông báo kết thúc trận đấu
-                player1.sendMessage(new Message("match_end", "Trận đấu kết thúc."));
-                player2.sendMessage(new Message("match_end", "Trận đấu kết thúc."));
+        // Gửi thông báo kết thúc trận đấu
+        player1.sendMessage(new Message("match_end", endMessage));
+        player2.sendMessage(new Message("match_end", endMessage));
 
-                // Đặt lại biến
-                shooterWantsRematch = null;
-                goalkeeperWantsRematch = null;
+        // Đặt lại biến
+        shooterWantsRematch = null;
+        goalkeeperWantsRematch = null;
 
-                // Đưa cả hai người chơi về màn hình chính
-                player1.clearGameRoom();
-                player2.clearGameRoom();
-            }
-        }
+        // Đưa cả hai người chơi về màn hình chính
+        player1.clearGameRoom();
+        player2.clearGameRoom();
     }
 
-    private void resetGameState() throws SQLException {
+    private void resetGameState() {
         // Reset game variables
-        shooterScore = 0;
-        goalkeeperScore = 0;
-        currentRound = 1;
         shooterDirection = null;
         shooterWantsRematch = null;
         goalkeeperWantsRematch = null;
+        matchEnded = false;
 
         // Swap shooter and goalkeeper roles for fairness
-        ClientHandler temp = shooterHandler;
-        shooterHandler = goalkeeperHandler;
-        goalkeeperHandler = temp;
-
-        // Create a new match in the database
-        matchId = dbManager.saveMatch(player1.getUser().getId(), player2.getUser().getId(), 0);
+        match.reset(1 - match.getFirstShooter());
+        updateRoles();
     }
 
     // Đảm bảo rằng phương thức endMatch() tồn tại và được định nghĩa chính xác
-    private void endMatch() throws SQLException, IOException {
+    private void endMatch() {
         determineWinner();
 
         // Reset in-game status for both players after match
         if (shooterHandler != null) {
-            shooterHandler.getUser().setStatus("online");
+            presence.update(shooterHandler.getUser(), PresenceService.ONLINE);
             // todo gui message neu can
         }
         if (goalkeeperHandler != null) {
-            goalkeeperHandler.getUser().setStatus("online");
+            presence.update(goalkeeperHandler.getUser(), PresenceService.ONLINE);
             // todo gui message neu can
         }
     }
 
-    public void handlePlayerDisconnect(ClientHandler disconnectedPlayer) throws SQLException, IOException {
-        String resultMessageToWinner = "Đối thủ đã thoát. Bạn thắng trận đấu!";
-        String resultMessageToLoser = "Bạn đã thoát. Bạn thua trận đấu!";
+    private void onPlayerDisconnect(ClientHandler disconnectedPlayer) {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        // Trận đã có kết quả (đang chờ chơi lại): chỉ báo rời phòng, kết quả giữ nguyên
+        String resultMessageToWinner = matchEnded ? "Đối thủ đã rời phòng." : "Đối thủ đã thoát. Bạn thắng trận đấu!";
+        String resultMessageToLoser = matchEnded ? "Trận đấu kết thúc." : "Bạn đã thoát. Bạn thua trận đấu!";
         int winnerId = 0;
         String endReason = "player_quit";
         ClientHandler otherPlayer = null;
@@ -358,28 +467,29 @@ public class GameRoom {
 
         shooterWantsRematch = false;
         goalkeeperWantsRematch = false;
-
-        if (winnerId != 0) {
-            dbManager.updateUserPoints(winnerId, 3);
-            dbManager.updateMatchWinner(matchId, winnerId, endReason);
-        }
+        cancelTimers();
 
         // cap nhat status "ingame" -> "online"
-        otherPlayer.getUser().setStatus("online");
-        dbManager.updateUserStatus(otherPlayer.getUser().getId(), "online");
-        otherPlayer.getServer()
-                .broadcast(new Message("status_update", otherPlayer.getUser().getUsername() + " is online"));
+        presence.update(otherPlayer.getUser(), PresenceService.ONLINE);
 
         // cap nhat status "ingame" -> "offline"
-        disconnectedPlayer.getUser().setStatus("offline");
-        dbManager.updateUserStatus(disconnectedPlayer.getUser().getId(), "offline");
-        disconnectedPlayer.getServer()
-                .broadcast(new Message("status_update", disconnectedPlayer.getUser().getUsername() + " is offline"));
+        presence.update(disconnectedPlayer.getUser(), PresenceService.OFFLINE);
         // -------------------------------------------------------
 
-        // Gửi thông báo kết thúc trận đấu cho cả hai người chơi
-        otherPlayer.sendMessage(new Message("match_end", resultMessageToWinner));
-        disconnectedPlayer.sendMessage(new Message("match_end", resultMessageToLoser));
+        // Gửi thông báo kết thúc trận đấu cho cả hai người chơi (sau khi điểm đã được ghi)
+        ClientHandler winnerHandler = otherPlayer;
+        Runnable notify = () -> {
+            winnerHandler.sendMessage(new Message("match_end", resultMessageToWinner));
+            disconnectedPlayer.sendMessage(new Message("match_end", resultMessageToLoser));
+        };
+        if (winnerId != 0 && !matchEnded) {
+            afterWritten(writer.endMatch(record, winnerId, endReason, WIN_POINTS), notify, () -> {
+                winnerHandler.sendMessage(new Message("match_end", RESULT_NOT_SAVED));
+                disconnectedPlayer.sendMessage(new Message("match_end", RESULT_NOT_SAVED));
+            });
+        } else {
+            notify.run();
+        }
 
         // Đặt lại trạng thái game room
         shooterWantsRematch = null;
@@ -396,9 +506,14 @@ public class GameRoom {
 
     }
 
-    public void handlePlayerQuit(ClientHandler quittingPlayer) throws SQLException, IOException {
-        String resultMessageToLoser = "Bạn đã thoát. Bạn thua trận đấu!";
-        String resultMessageToWinner = "Đối thủ đã thoát. Bạn thắng trận đấu!";
+    private void onPlayerQuit(ClientHandler quittingPlayer) {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        // Trận đã có kết quả (đang chờ chơi lại): chỉ báo rời phòng, kết quả giữ nguyên
+        String resultMessageToLoser = matchEnded ? "Trận đấu kết thúc." : "Bạn đã thoát. Bạn thua trận đấu!";
+        String resultMessageToWinner = matchEnded ? "Đối thủ đã rời phòng." : "Đối thủ đã thoát. Bạn thắng trận đấu!";
 
         int winnerId = 0;
         String endReason = "player_quit";
@@ -413,29 +528,30 @@ public class GameRoom {
             otherPlayer = player1;
             goalkeeperWantsRematch = false;
         }
-
-        if (winnerId != 0) {
-            dbManager.updateUserPoints(winnerId, 3);
-            dbManager.updateMatchWinner(matchId, winnerId, endReason);
-        }
+        cancelTimers();
 
         // cap nhat status "ingame" -> "online"
-        shooterHandler.getUser().setStatus("online");
-        goalkeeperHandler.getUser().setStatus("online");
-
-        dbManager.updateUserStatus(shooterHandler.getUser().getId(), "online");
-        dbManager.updateUserStatus(goalkeeperHandler.getUser().getId(), "online");
-
-        shooterHandler.getServer()
-                .broadcast(new Message("status_update", shooterHandler.getUser().getUsername() + " is online"));
-        goalkeeperHandler.getServer()
-                .broadcast(new Message("status_update", goalkeeperHandler.getUser().getUsername() + " is online"));
+        presence.update(shooterHandler.getUser(), PresenceService.ONLINE);
+        presence.update(goalkeeperHandler.getUser(), PresenceService.ONLINE);
         // ------------------------------------------------------------
 
-        // Gửi thông báo kết thúc trận đấu cho cả hai người chơi
-        quittingPlayer.sendMessage(new Message("match_end", resultMessageToLoser));
-        if (otherPlayer != null) {
-            otherPlayer.sendMessage(new Message("match_end", resultMessageToWinner));
+        // Gửi thông báo kết thúc trận đấu cho cả hai người chơi (sau khi điểm đã được ghi)
+        ClientHandler winnerHandler = otherPlayer;
+        Runnable notify = () -> {
+            quittingPlayer.sendMessage(new Message("match_end", resultMessageToLoser));
+            if (winnerHandler != null) {
+                winnerHandler.sendMessage(new Message("match_end", resultMessageToWinner));
+            }
+        };
+        if (winnerId != 0 && !matchEnded) {
+            afterWritten(writer.endMatch(record, winnerId, endReason, WIN_POINTS), notify, () -> {
+                quittingPlayer.sendMessage(new Message("match_end", RESULT_NOT_SAVED));
+                if (winnerHandler != null) {
+                    winnerHandler.sendMessage(new Message("match_end", RESULT_NOT_SAVED));
+                }
+            });
+        } else {
+            notify.run();
         }
 
         // Đặt lại trạng thái game room
@@ -454,22 +570,38 @@ public class GameRoom {
         // Không cần gửi thông báo "return_to_main"
     }
 
-    public void startShooterTimeout() {
+    // Hủy mọi hẹn giờ đang chờ khi phòng kết thúc sớm
+    private void cancelTimers() {
+        if (shooterTimeoutTask != null) {
+            shooterTimeoutTask.cancel();
+        }
+        if (goalkeeperTimeoutTask != null) {
+            goalkeeperTimeoutTask.cancel();
+        }
+        if (playAgainPromptTask != null) {
+            playAgainPromptTask.cancel();
+        }
+        if (playAgainReplyTask != null) {
+            playAgainReplyTask.cancel();
+        }
+    }
+
+    private void startShooterTimeout() {
         try {
-            if (checkEndGame()) {
+            if (match.isFinished()) {
                 endMatch();
                 return;
             }
             if (!shooterActionReceived) {
                 // Người sút không thực hiện hành động trong thời gian quy định
-                shooterDirection = "Giữa-Thấp";
+                shooterDirection = Moves.decode(PenaltyMatch.DEFAULT_MOVE);
                 shooterActionReceived = true;
                 shooterHandler.sendMessage(
-                        new Message("timeout", "Hết giờ! \nHệ thống tự chọn 'Giữa-Thấp' cho bạn."));
+                        new Message("timeout", "Hết giờ! \nHệ thống tự chọn '" + shooterDirection + "' cho bạn."));
                 goalkeeperHandler.sendMessage(new Message("opponent_timeout",
-                        "Hết giờ! \nHệ thống tự chọn 'Giữa-Thấp' cho đối thủ."));
+                        "Hết giờ! \nHệ thống tự chọn '" + shooterDirection + "' cho đối thủ."));
                 // Yêu cầu người bắt chọn hướng chặn
-                handleShot(shooterDirection, shooterHandler);
+                applyShot(shooterDirection);
 
                 // Bắt đầu đếm thời gian chờ cho người bắt
                 goalkeeperActionReceived = false;
@@ -480,51 +612,20 @@ public class GameRoom {
         }
     }
 
-    private boolean checkEndGame() {
-        // currentRound ĐÃ được tăng lên rồi
-        // currentRound = 2 nghĩa là vừa đá xong round 1
-        // currentRound = 11 nghĩa là vừa đá xong round 10
-
-        // Chưa đủ 10 rounds
-        if (currentRound <= MAX_ROUNDS) {
-            return false;
-        }
-
-        // Vừa đá xong round 10 (currentRound = 11)
-        if (currentRound == MAX_ROUNDS + 1) {
-            // Kiểm tra hòa không
-            return shooterScore != goalkeeperScore;
-        }
-
-        // Đã vào sudden death (currentRound >= 12)
-        // currentRound = 12 → vừa đá xong round 11 (lượt 1 sudden death)
-        // currentRound = 13 → vừa đá xong round 12 (lượt 2 sudden death)
-
-        int suddenDeathRounds = currentRound - (MAX_ROUNDS + 1);
-
-        // Nếu là lượt chẵn (2, 4, 6...) → cả 2 đã đá xong → KIỂM TRA
-        // Nếu là lượt lẻ (1, 3, 5...) → mới 1 người đá → CHƯA kiểm tra
-        if (suddenDeathRounds % 2 == 0) {
-            return shooterScore != goalkeeperScore;
-        } else {
-            return false;
-        }
-    }
-
-    public void startGoalkeeperTimeout() {
+    private void startGoalkeeperTimeout() {
         try {
             if (!goalkeeperActionReceived) {
                 // Người bắt không thực hiện hành động trong thời gian quy định
-                goalkeeperDirection = "Giữa-Thấp";
+                goalkeeperDirection = Moves.decode(PenaltyMatch.DEFAULT_MOVE);
                 goalkeeperActionReceived = true;
 
                 goalkeeperHandler.sendMessage(
-                        new Message("timeout", "Hết giờ! \nHệ thống tự chọn 'Giữa-Thấp' cho bạn."));
+                        new Message("timeout", "Hết giờ! \nHệ thống tự chọn '" + goalkeeperDirection + "' cho bạn."));
                 shooterHandler.sendMessage(new Message("opponent_timeout",
-                        "Hết giờ! \nHệ thống tự chọn 'Giữa-Thấp' cho đối thủ."));
+                        "Hết giờ! \nHệ thống tự chọn '" + goalkeeperDirection + "' cho đối thủ."));
 
                 // Tiến hành xử lý kết quả
-                handleGoalkeeper(goalkeeperDirection, goalkeeperHandler);
+                applyGoalkeeper(goalkeeperDirection);
             }
         } catch (Exception e) {
             e.printStackTrace();
@@ -0,0 +1,248 @@
+package server;
+
+import common.Match;
+import common.MatchDetails;
+import javafx.util.Pair;
+
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Bộ đệm kết quả lịch sử đấu, giới hạn theo số byte ước lượng, bỏ mục ít dùng gần đây nhất (LRU).
+// Các lượt sút của trận đã kết thúc không bao giờ đổi nên được giữ tới khi bị đẩy ra; các trang
+// danh sách trận/lịch sử của một người bị xóa khi MatchWriter commit sự kiện của trận có người đó.
+public class HistoryCache {
+    private final DatabaseManager dbManager;
+    private final long maxBytes;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(256, 0.75f, true);
+    private final HashMap<Integer, Set<String>> keysByUser = new HashMap<>();
+    // Tăng mỗi lần xóa theo người chơi: kết quả đọc từ MySQL trước lần xóa không được đưa vào bộ đệm
+    private final HashMap<Integer, Integer> userVersions = new HashMap<>();
+    private long bytes;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+
+    public HistoryCache(DatabaseManager dbManager, long maxBytes) {
+        this.dbManager = dbManager;
+        this.maxBytes = maxBytes;
+    }
+
+    @SuppressWarnings("unchecked")
+    public List<MatchDetails> getMatchDetails(int matchId) throws SQLException {
+        String key = "d:" + matchId;
+        Object cached = get(key);
+        if (cached != null) {
+            return (List<MatchDetails>) cached;
+        }
+        Pair<List<MatchDetails>, Boolean> result = dbManager.getMatchDetails(matchId);
+        List<MatchDetails> details = List.copyOf(result.getKey());
+        // Trận đang diễn ra còn thêm lượt sút: không giữ lại
+        if (result.getValue()) {
+            put(key, details, weighDetails(details), 0, 0);
+        }
+        return details;
+    }
+
+    @SuppressWarnings("unchecked")
+    public ResultPage<Match> getUserMatches(int userId, int beforeMatchId, int limit) throws SQLException {
+        String key = "m:" + userId + ":" + beforeMatchId + ":" + limit;
+        Object cached = get(key);
+        if (cached != null) {
+            return (ResultPage<Match>) cached;
+        }
+        int version = versionOf(userId);
+        ResultPage<Match> page = dbManager.getUserMatches(userId, beforeMatchId, limit);
+        List<Match> matches = List.copyOf(page.getItems());
+        page = new ResultPage<>(matches, page.getNextCursor());
+        put(key, page, weighMatches(matches), userId, version);
+        return page;
+    }
+
+    @SuppressWarnings("unchecked")
+    public ResultPage<MatchDetails> getUserMatchHistory(int userId, int beforeMatchId, int matchLimit)
+            throws SQLException {
+        String key = "h:" + userId + ":" + beforeMatchId + ":" + matchLimit;
+        Object cached = get(key);
+        if (cached != null) {
+            return (ResultPage<MatchDetails>) cached;
+        }
+        int version = versionOf(userId);
+        ResultPage<MatchDetails> page = dbManager.getUserMatchHistory(userId, beforeMatchId, matchLimit);
+        List<MatchDetails> history = List.copyOf(page.getItems());
+        page = new ResultPage<>(history, page.getNextCursor());
+        put(key, page, weighDetails(history), userId, version);
+        return page;
+    }
+
+    // Gọi sau khi một lô sự kiện có trận của người chơi này đã được commit
+    public void invalidateUser(int userId) {
+        lock.lock();
+        try {
+            userVersions.merge(userId, 1, Integer::sum);
+            Set<String> keys = keysByUser.remove(userId);
+            if (keys == null) {
+                return;
+            }
+            for (String key : keys) {
+                Entry entry = entries.remove(key);
+                if (entry != null) {
+                    bytes -= entry.weight;
+                    invalidations.incrementAndGet();
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getEntries() {
+        lock.lock();
+        try {
+            return entries.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getBytes() {
+        lock.lock();
+        try {
+            return bytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    // Tỷ lệ trúng (%) từ khi server khởi động
+    public int getHitPercent() {
+        long h = hits.get();
+        long total = h + misses.get();
+        return total == 0 ? 0 : (int) (h * 100 / total);
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    public long getInvalidations() {
+        return invalidations.get();
+    }
+
+    private Object get(String key) {
+        lock.lock();
+        try {
+            Entry entry = entries.get(key);
+            if (entry == null) {
+                misses.incrementAndGet();
+                return null;
+            }
+            hits.incrementAndGet();
+            return entry.value;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // userId = 0: mục không gắn với người chơi nào (không bao giờ bị xóa theo người chơi)
+    private void put(String key, Object value, long weight, int userId, int version) {
+        if (weight > maxBytes) {
+            return;
+        }
+        lock.lock();
+        try {
+            if (userId != 0 && versionOf(userId) != version) {
+                return;
+            }
+            Entry old = entries.put(key, new Entry(value, weight, userId));
+            if (old != null) {
+                bytes -= old.weight;
+            }
+            bytes += weight;
+            if (userId != 0) {
+                keysByUser.computeIfAbsent(userId, id -> new HashSet<>()).add(key);
+            }
+            Iterator<Map.Entry<String, Entry>> eldest = entries.entrySet().iterator();
+            while (bytes > maxBytes && eldest.hasNext()) {
+                Map.Entry<String, Entry> next = eldest.next();
+                eldest.remove();
+                Entry entry = next.getValue();
+                bytes -= entry.weight;
+                evictions.incrementAndGet();
+                if (entry.userId != 0) {
+                    Set<String> keys = keysByUser.get(entry.userId);
+                    if (keys != null) {
+                        keys.remove(next.getKey());
+                        if (keys.isEmpty()) {
+                            keysByUser.remove(entry.userId);
+                        }
+                    }
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private int versionOf(int userId) {
+        lock.lock();
+        try {
+            return userVersions.getOrDefault(userId, 0);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // ===== Ước lượng kích thước (header object, các trường, chuỗi UTF-16) =====
+
+    private static long weigh(String s) {
+        return s == null ? 0 : 40 + 2L * s.length();
+    }
+
+    private static long weighDetails(List<MatchDetails> details) {
+        long total = 64;
+        for (MatchDetails detail : details) {
+            total += 80 + weigh(detail.getShooterDirection()) + weigh(detail.getGoalkeeperDirection())
+                    + weigh(detail.getResult());
+        }
+        return total;
+    }
+
+    private static long weighMatches(List<Match> matches) {
+        long total = 64;
+        for (Match match : matches) {
+            total += 96 + weigh(match.getPlayer1Name()) + weigh(match.getPlayer2Name())
+                    + weigh(match.getEndReason());
+        }
+        return total;
+    }
+
+    private static class Entry {
+        final Object value;
+        final long weight;
+        final int userId;
+
+        Entry(Object value, long weight, int userId) {
+            this.value = value;
+            this.weight = weight;
+            this.userId = userId;
+        }
+    }
+}
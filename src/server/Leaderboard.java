@@ -0,0 +1,296 @@
+package server;
+
+import common.User;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.random.RandomGenerator;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+// Bảng xếp hạng trong bộ nhớ: treap sắp theo (điểm giảm dần, id tăng dần), mỗi nút biết kích thước
+// cây con nên lấy hạng của một người, lấy người ở hạng k hay một trang đều là O(log n) (kỳ vọng)
+// cộng số dòng trả về. Nạp từ MySQL khi server khởi động, sau đó cập nhật theo từng lần cộng điểm
+// đã được ghi xuống MySQL.
+// Bảng cũng là danh bạ người chơi: mỗi thay đổi có một phiên bản và được ghi vào nhật ký vòng tròn,
+// để client đã có danh bạ chỉ cần nhận những người đổi từ phiên bản của mình.
+public class Leaderboard {
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final HashMap<Integer, Node> byUser = new HashMap<>();
+    private final RandomGenerator random = RandomGenerator.getDefault();
+    private Node root;
+    // Tăng mỗi lần bảng thay đổi. Bắt đầu từ thời điểm khởi động để phiên bản client nhận từ
+    // lần chạy trước của server không trùng với phiên bản của lần chạy này.
+    private volatile long version = System.currentTimeMillis() << 16;
+    // Nhật ký thay đổi: logVersions[i] là phiên bản mà logUsers[i] đổi
+    private final long[] logVersions;
+    private final int[] logUsers;
+    private int logStart;
+    private int logCount;
+    // Mọi thay đổi có phiên bản lớn hơn mốc này còn trong nhật ký
+    private long logFloor = version;
+
+    public Leaderboard(int logSize) {
+        logVersions = new long[Math.max(1, logSize)];
+        logUsers = new int[logVersions.length];
+    }
+
+    // Nạp lại toàn bộ (khi khởi động)
+    public void rebuild(List<User> users) {
+        lock.writeLock().lock();
+        try {
+            root = null;
+            byUser.clear();
+            for (User user : users) {
+                insert(new Node(user.getId(), user.getUsername(), user.getPoints(), random.nextInt()));
+            }
+            version++;
+            // Client có danh bạ cũ hơn phải nhận lại toàn bộ
+            logCount = 0;
+            logFloor = version;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Thêm người chơi chưa có trong bảng (ví dụ vừa đăng ký rồi đăng nhập)
+    public void ensure(User user) {
+        lock.writeLock().lock();
+        try {
+            if (!byUser.containsKey(user.getId())) {
+                insert(new Node(user.getId(), user.getUsername(), user.getPoints(), random.nextInt()));
+                changed(user.getId());
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void addPoints(int userId, int delta) {
+        lock.writeLock().lock();
+        try {
+            Node node = byUser.get(userId);
+            if (node == null) {
+                return;
+            }
+            remove(node);
+            insert(new Node(userId, node.username, node.points + delta, node.priority));
+            changed(userId);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Người chơi (không có trạng thái), null nếu không có trong bảng
+    public User get(int userId) {
+        lock.readLock().lock();
+        try {
+            Node node = byUser.get(userId);
+            return node == null ? null : new User(node.userId, node.username, node.points, null);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return size(root);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Hạng (tính từ 1) của người chơi, 0 nếu không có trong bảng
+    public int rankOf(int userId) {
+        lock.readLock().lock();
+        try {
+            Node node = byUser.get(userId);
+            return node == null ? 0 : countBefore(root, node.points, node.userId) + 1;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Các dòng từ hạng from (tính từ 0), tối đa count dòng
+    public List<User> range(int from, int count) {
+        lock.readLock().lock();
+        try {
+            List<User> users = new ArrayList<>(Math.max(0, Math.min(count, size(root) - from)));
+            if (from >= 0 && count > 0) {
+                collect(root, from, from + count, 0, users);
+            }
+            return users;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public List<User> top(int count) {
+        return range(0, count);
+    }
+
+    // Object[] { phiên bản hiện tại, true nếu là toàn bộ danh bạ, List<User> }: những người đổi sau
+    // phiên bản since, hoặc toàn bộ nếu nhật ký không còn đủ (client quá cũ, hoặc từ lần chạy khác)
+    public Object[] directorySince(long since) {
+        lock.readLock().lock();
+        try {
+            if (since < logFloor || since > version) {
+                return new Object[] { version, true, range(0, size(root)) };
+            }
+            LinkedHashSet<Integer> changedUsers = new LinkedHashSet<>();
+            for (int i = 0; i < logCount; i++) {
+                int slot = (logStart + i) % logVersions.length;
+                if (logVersions[slot] > since) {
+                    changedUsers.add(logUsers[slot]);
+                }
+            }
+            List<User> users = new ArrayList<>(changedUsers.size());
+            for (int userId : changedUsers) {
+                Node node = byUser.get(userId);
+                if (node != null) {
+                    users.add(new User(node.userId, node.username, node.points, null));
+                }
+            }
+            return new Object[] { version, false, users };
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Gọi khi đang giữ write lock
+    private void changed(int userId) {
+        version++;
+        if (logCount == logVersions.length) {
+            logFloor = logVersions[logStart];
+            logStart = (logStart + 1) % logVersions.length;
+            logCount--;
+        }
+        int slot = (logStart + logCount) % logVersions.length;
+        logVersions[slot] = version;
+        logUsers[slot] = userId;
+        logCount++;
+    }
+
+    // ===== Treap =====
+
+    private static class Node {
+        final int userId;
+        final String username;
+        final int points;
+        final int priority;
+        Node left;
+        Node right;
+        int size = 1;
+
+        Node(int userId, String username, int points, int priority) {
+            this.userId = userId;
+            this.username = username;
+            this.points = points;
+            this.priority = priority;
+        }
+    }
+
+    private static int size(Node node) {
+        return node == null ? 0 : node.size;
+    }
+
+    private static void update(Node node) {
+        node.size = 1 + size(node.left) + size(node.right);
+    }
+
+    // a đứng trước (points, userId) trong bảng xếp hạng
+    private static boolean before(Node a, int points, int userId) {
+        return a.points > points || (a.points == points && a.userId < userId);
+    }
+
+    private void insert(Node node) {
+        Node[] parts = split(root, node.points, node.userId);
+        root = merge(merge(parts[0], node), parts[1]);
+        byUser.put(node.userId, node);
+    }
+
+    private void remove(Node node) {
+        Node[] parts = split(root, node.points, node.userId);
+        // parts[1] bắt đầu bằng chính node: bỏ phần tử nhỏ nhất của nó
+        root = merge(parts[0], removeFirst(parts[1]));
+        byUser.remove(node.userId);
+    }
+
+    private static Node removeFirst(Node node) {
+        if (node.left == null) {
+            return node.right;
+        }
+        node.left = removeFirst(node.left);
+        update(node);
+        return node;
+    }
+
+    // Tách thành [các nút đứng trước khóa, các nút còn lại]
+    private static Node[] split(Node node, int points, int userId) {
+        if (node == null) {
+            return new Node[2];
+        }
+        if (before(node, points, userId)) {
+            Node[] parts = split(node.right, points, userId);
+            node.right = parts[0];
+            update(node);
+            parts[0] = node;
+            return parts;
+        }
+        Node[] parts = split(node.left, points, userId);
+        node.left = parts[1];
+        update(node);
+        parts[1] = node;
+        return parts;
+    }
+
+    // Mọi khóa của a đứng trước mọi khóa của b
+    private static Node merge(Node a, Node b) {
+        if (a == null) {
+            return b;
+        }
+        if (b == null) {
+            return a;
+        }
+        if (a.priority > b.priority) {
+            a.right = merge(a.right, b);
+            update(a);
+            return a;
+        }
+        b.left = merge(a, b.left);
+        update(b);
+        return b;
+    }
+
+    private static int countBefore(Node node, int points, int userId) {
+        int count = 0;
+        while (node != null) {
+            if (before(node, points, userId)) {
+                count += size(node.left) + 1;
+                node = node.right;
+            } else {
+                node = node.left;
+            }
+        }
+        return count;
+    }
+
+    // Thêm các nút có hạng trong [from, to) theo thứ tự; offset là hạng của nút nhỏ nhất trong cây con
+    private static void collect(Node node, int from, int to, int offset, List<User> out) {
+        if (node == null || offset >= to || offset + node.size <= from) {
+            return;
+        }
+        collect(node.left, from, to, offset, out);
+        int rank = offset + size(node.left);
+        if (rank >= from && rank < to) {
+            out.add(new User(node.userId, node.username, node.points, null));
+        }
+        collect(node.right, from, to, rank + 1, out);
+    }
+}
@@ -0,0 +1,332 @@
+package server;
+
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Ghi trận đấu xuống MySQL bất đồng bộ (write-behind): phòng chỉ đưa sự kiện (bắt đầu trận, từng lượt
+// sút, kết thúc trận) vào hàng đợi. Một thread gom các sự kiện thành lô và ghi mỗi lô bằng JDBC batch
+// trong một transaction. Tổng số sự kiện chờ ghi có giới hạn (capacity): khi MySQL chậm và giới hạn đã
+// đạt, startMatch từ chối trận mới (trả về null) nên không có phòng mới được mở. Lượt sút và kết thúc
+// của các trận đang chơi vẫn luôn được nhận, không làm phòng phải chờ (không giữ shard của các phòng
+// khác): nếu hàng đợi đầy chúng được dồn sang danh sách tràn và thread ghi chuyển dần vào hàng đợi
+// theo đúng thứ tự. Phần tràn này bị chặn bởi số phòng đang mở, vì mỗi phòng chỉ sinh sự kiện theo
+// nhịp chơi của người thật. Kết thúc trận trả về future hoàn thành sau khi transaction chứa nó đã commit.
+public class MatchWriter {
+    private final DatabaseManager dbManager;
+    private final Leaderboard leaderboard;
+    private final HistoryCache historyCache;
+    private final BlockingQueue<Object> queue;
+    private final int capacity;
+    private final int batchSize;
+    private final long flushNanos;
+    private final int retries;
+    // Sự kiện đến khi hàng đợi đầy, luôn mới hơn mọi sự kiện trong hàng đợi; giữ bởi khóa của chính nó
+    private final ArrayDeque<Object> overflow = new ArrayDeque<>();
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong spilled = new AtomicLong();
+    private final AtomicLong refused = new AtomicLong();
+    private final Thread worker;
+
+    public MatchWriter(DatabaseManager dbManager, Leaderboard leaderboard, HistoryCache historyCache,
+            int batchSize, int flushMillis, int capacity, int retries) {
+        this.dbManager = dbManager;
+        this.leaderboard = leaderboard;
+        this.historyCache = historyCache;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.capacity = capacity;
+        this.batchSize = batchSize;
+        this.flushNanos = TimeUnit.MILLISECONDS.toNanos(flushMillis);
+        this.retries = retries;
+        worker = new Thread(this::run, "match-writer");
+        worker.setDaemon(true);
+        worker.start();
+        // Ghi nốt các sự kiện còn trong hàng đợi khi server tắt
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            worker.interrupt();
+            try {
+                worker.join(5000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, "match-writer-final-flush"));
+    }
+
+    // Trận mới; id trong MySQL được gán khi lô chứa sự kiện này được ghi.
+    // Trả về null (trận bị từ chối) khi số sự kiện chờ ghi đã đạt capacity.
+    public MatchRecord startMatch(int player1Id, int player2Id) {
+        MatchRecord record = new MatchRecord(player1Id, player2Id);
+        synchronized (overflow) {
+            if (queue.size() + overflow.size() >= capacity) {
+                if (refused.incrementAndGet() % 100 == 1) {
+                    System.out.println("Hàng đợi ghi trận đấu đầy (" + (queue.size() + overflow.size())
+                            + "), từ chối trận mới");
+                }
+                return null;
+            }
+            enqueue(record);
+        }
+        return record;
+    }
+
+    public void recordKick(MatchRecord record, int round, int shooterId, int goalkeeperId,
+            String shooterDirection, String goalkeeperDirection, String result) {
+        enqueue(new Kick(record, round, shooterId, goalkeeperId, shooterDirection, goalkeeperDirection, result));
+    }
+
+    // winnerId = 0 nếu hòa; người thắng được cộng points điểm trong cùng transaction
+    public CompletableFuture<Void> endMatch(MatchRecord record, int winnerId, String endReason, int points) {
+        MatchEnd end = new MatchEnd(record, winnerId, endReason, points);
+        enqueue(end);
+        return end.written;
+    }
+
+    public int getQueued() {
+        synchronized (overflow) {
+            return queue.size() + overflow.size();
+        }
+    }
+
+    // Số sự kiện đã phải dồn sang danh sách tràn vì hàng đợi đầy
+    public long getSpilledEvents() {
+        return spilled.get();
+    }
+
+    // Số trận mới bị từ chối vì hàng đợi ghi đã đầy
+    public long getRefusedMatches() {
+        return refused.get();
+    }
+
+    public long getBatches() {
+        return batches.get();
+    }
+
+    public long getWrittenEvents() {
+        return written.get();
+    }
+
+    // Sự kiện không được ghi: lô chứa nó (hay trận của nó) ghi thất bại sau mọi lần thử lại
+    public long getDroppedEvents() {
+        return dropped.get();
+    }
+
+    // Không bao giờ chờ: hàng đợi đầy (hoặc đã có sự kiện tràn trước đó, để giữ thứ tự) thì dồn sang overflow.
+    // Chỉ lượt sút/kết thúc của trận đã mở mới có thể tràn, vì startMatch đã kiểm tra giới hạn.
+    private void enqueue(Object event) {
+        synchronized (overflow) {
+            if (overflow.isEmpty() && queue.offer(event)) {
+                return;
+            }
+            overflow.addLast(event);
+        }
+        if (spilled.incrementAndGet() % 1000 == 1) {
+            System.out.println("Hàng đợi ghi trận đấu đầy (" + queue.size() + "), dồn sự kiện sang danh sách tràn");
+        }
+    }
+
+    // Chuyển sự kiện tràn vào hàng đợi theo thứ tự đến khi hết chỗ; chỉ thread ghi gọi
+    private void refill() {
+        synchronized (overflow) {
+            while (!overflow.isEmpty() && queue.offer(overflow.peekFirst())) {
+                overflow.pollFirst();
+            }
+        }
+    }
+
+    private void run() {
+        List<Object> batch = new ArrayList<>(batchSize);
+        while (true) {
+            refill();
+            try {
+                batch.add(queue.take());
+                // Chờ thêm tối đa flushNanos để gom lô, trừ khi lô đã đủ
+                long deadline = System.nanoTime() + flushNanos;
+                while (batch.size() < batchSize) {
+                    queue.drainTo(batch, batchSize - batch.size());
+                    long remaining = deadline - System.nanoTime();
+                    if (batch.size() >= batchSize || remaining <= 0) {
+                        break;
+                    }
+                    Object event = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (event == null) {
+                        break;
+                    }
+                    batch.add(event);
+                }
+            } catch (InterruptedException e) {
+                // Server đang tắt: ghi mọi thứ còn lại (cả phần tràn) rồi dừng
+                queue.drainTo(batch);
+                synchronized (overflow) {
+                    batch.addAll(overflow);
+                    overflow.clear();
+                }
+                write(batch);
+                return;
+            }
+            write(batch);
+            batch.clear();
+        }
+    }
+
+    private void write(List<Object> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        List<MatchRecord> starts = new ArrayList<>();
+        List<Kick> kicks = new ArrayList<>();
+        List<MatchEnd> ends = new ArrayList<>();
+        int skipped = 0;
+        for (Object event : batch) {
+            if (event instanceof MatchRecord) {
+                starts.add((MatchRecord) event);
+            } else if (event instanceof Kick) {
+                Kick kick = (Kick) event;
+                // Trận chưa ghi được thì các lượt của nó cũng bỏ
+                if (!kick.record.failed) {
+                    kicks.add(kick);
+                } else {
+                    skipped++;
+                }
+            } else if (event instanceof MatchEnd) {
+                MatchEnd end = (MatchEnd) event;
+                if (end.record.failed) {
+                    skipped++;
+                    end.written.completeExceptionally(new SQLException("Trận đấu chưa được ghi vào MySQL"));
+                } else {
+                    ends.add(end);
+                }
+            }
+        }
+        if (skipped > 0) {
+            dropped.addAndGet(skipped);
+            System.out.println("Bỏ " + skipped + " sự kiện của các trận chưa được ghi vào MySQL");
+        }
+        for (int attempt = 1; ; attempt++) {
+            try {
+                dbManager.writeMatchEvents(starts, kicks, ends);
+                break;
+            } catch (SQLException e) {
+                if (attempt > retries) {
+                    System.out.println("Không ghi được " + batch.size() + " sự kiện trận đấu sau "
+                            + attempt + " lần thử");
+                    e.printStackTrace();
+                    dropped.addAndGet(starts.size() + kicks.size() + ends.size());
+                    logLost(kicks, ends);
+                    for (MatchRecord record : starts) {
+                        record.failed = true;
+                    }
+                    for (MatchEnd end : ends) {
+                        end.written.completeExceptionally(e);
+                    }
+                    return;
+                }
+                try {
+                    Thread.sleep(100L * attempt);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+        batches.incrementAndGet();
+        written.addAndGet(starts.size() + kicks.size() + ends.size());
+        // Lịch sử đấu của những người có trận vừa đổi không còn đúng
+        HashSet<Integer> changedUsers = new HashSet<>();
+        for (MatchRecord record : starts) {
+            changedUsers.add(record.player1Id);
+            changedUsers.add(record.player2Id);
+        }
+        for (Kick kick : kicks) {
+            changedUsers.add(kick.record.player1Id);
+            changedUsers.add(kick.record.player2Id);
+        }
+        for (MatchEnd end : ends) {
+            changedUsers.add(end.record.player1Id);
+            changedUsers.add(end.record.player2Id);
+        }
+        for (int userId : changedUsers) {
+            historyCache.invalidateUser(userId);
+        }
+        for (MatchEnd end : ends) {
+            // Bảng xếp hạng chỉ đổi sau khi điểm đã được commit
+            if (end.winnerId != 0) {
+                leaderboard.addPoints(end.winnerId, end.points);
+            }
+            end.written.complete(null);
+        }
+    }
+
+    // In các lượt sút và kết thúc trận bị mất theo từng trận, kể cả trận đã được tạo ở lô trước
+    private void logLost(List<Kick> kicks, List<MatchEnd> ends) {
+        for (Kick kick : kicks) {
+            System.out.println("Mất lượt sút " + kick.round + " của trận " + describe(kick.record)
+                    + ": " + kick.shooterDirection + " / " + kick.goalkeeperDirection + " / " + kick.result);
+        }
+        for (MatchEnd end : ends) {
+            System.out.println("Mất kết thúc của trận " + describe(end.record) + ": người thắng "
+                    + end.winnerId + ", lý do " + end.endReason + ", +" + end.points + " điểm");
+        }
+    }
+
+    private static String describe(MatchRecord record) {
+        String id = record.matchId != 0 ? "#" + record.matchId : "(chưa có id)";
+        return id + " giữa " + record.player1Id + " và " + record.player2Id;
+    }
+
+    // Một trận trong MySQL; chỉ thread ghi đọc/ghi matchId và failed (lô tạo trận ghi thất bại).
+    public static class MatchRecord {
+        final int player1Id;
+        final int player2Id;
+        int matchId;
+        volatile boolean failed;
+
+        MatchRecord(int player1Id, int player2Id) {
+            this.player1Id = player1Id;
+            this.player2Id = player2Id;
+        }
+    }
+
+    static class Kick {
+        final MatchRecord record;
+        final int round;
+        final int shooterId;
+        final int goalkeeperId;
+        final String shooterDirection;
+        final String goalkeeperDirection;
+        final String result;
+
+        Kick(MatchRecord record, int round, int shooterId, int goalkeeperId,
+                String shooterDirection, String goalkeeperDirection, String result) {
+            this.record = record;
+            this.round = round;
+            this.shooterId = shooterId;
+            this.goalkeeperId = goalkeeperId;
+            this.shooterDirection = shooterDirection;
+            this.goalkeeperDirection = goalkeeperDirection;
+            this.result = result;
+        }
+    }
+
+    static class MatchEnd {
+        final MatchRecord record;
+        final int winnerId;
+        final String endReason;
+        final int points;
+        final CompletableFuture<Void> written = new CompletableFuture<>();
+
+        MatchEnd(MatchRecord record, int winnerId, String endReason, int points) {
+            this.record = record;
+            this.winnerId = winnerId;
+            this.endReason = endReason;
+            this.points = points;
+        }
+    }
+}
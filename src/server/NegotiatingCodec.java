@@ -0,0 +1,65 @@
+package server;
+
+import common.BinaryMessageCodec;
+import common.Frames;
+import common.Message;
+import common.MessageCodec;
+import common.Protocol;
+import common.SerializedMessageCodec;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+// Codec phía server trong giai đoạn chuyển tiếp: client mới mở đầu bằng frame HELLO và dùng giao thức
+// nhị phân; client cũ gửi stream Java serialization không có khung, kết nối nhận ra header 0xACED
+// và gọi useLegacyStream().
+public class NegotiatingCodec implements MessageCodec {
+    private static final BinaryMessageCodec BINARY = new BinaryMessageCodec();
+
+    private volatile MessageCodec delegate;
+    private volatile boolean legacyStream;
+
+    @Override
+    public byte[] encode(Message message) throws IOException {
+        MessageCodec codec = delegate;
+        if (codec == null) {
+            throw new IOException("Chưa xác định được giao thức của client");
+        }
+        return codec.encode(message);
+    }
+
+    // Tin nhắn đã mã hóa, sẵn sàng để ghi ra socket: có khung độ dài, trừ với stream cũ
+    public ByteBuffer encodeFrame(Message message) throws IOException {
+        byte[] payload = encode(message);
+        return legacyStream ? ByteBuffer.wrap(payload) : Frames.wrap(payload);
+    }
+
+    // Client gửi stream ObjectOutputStream liên tục; header phía server đã được gửi khi kết nối
+    public void useLegacyStream() {
+        delegate = new SerializedMessageCodec(ServerConfig.LEGACY_RESET_POLICY, false);
+        legacyStream = true;
+    }
+
+    @Override
+    public Message decode(byte[] frame) throws IOException {
+        if (delegate == null) {
+            if (Protocol.isHello(frame)) {
+                delegate = BINARY;
+                // ClientHandler trả lời bằng chính tin nhắn này để xác nhận
+                return new Message(Protocol.HELLO, Protocol.helloVersion(frame));
+            }
+            throw new IOException("Frame đầu tiên không phải HELLO");
+        }
+        return delegate.decode(frame);
+    }
+
+    public boolean isBinary() {
+        return delegate == BINARY;
+    }
+
+    // Kích thước bảng handle của stream Java serialization, 0 nếu không dùng giao thức cũ
+    public int getLegacyHandleCount() {
+        MessageCodec codec = delegate;
+        return codec instanceof SerializedMessageCodec ? ((SerializedMessageCodec) codec).getHandleCount() : 0;
+    }
+}
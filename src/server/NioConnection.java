@@ -0,0 +1,279 @@
+package server;
+
+import common.Frames;
+import common.Message;
+import common.MessageInputStream;
+import common.Protocol;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Kết nối non-blocking: đọc/ghi trên thread reactor, xử lý tin nhắn trên pool worker.
+// Client cũ gửi stream Java serialization không có khung: reactor đổ dữ liệu vào StreamFeed và
+// một virtual thread riêng của kết nối đó giải mã bằng MessageInputStream.
+public class NioConnection extends QueuedConnection {
+    private static final int INITIAL_READ_BUFFER = 8 * 1024;
+    private static final ByteBuffer[] NO_FRAMES = new ByteBuffer[0];
+
+    private final SocketChannel channel;
+    private final NioReactor reactor;
+    private final SerialExecutor inbound;
+    private final AtomicBoolean writeScheduled = new AtomicBoolean();
+    // Số tin nhắn đã giải mã nhưng chưa xử lý xong; vượt INBOUND_MAX thì ngừng đọc socket
+    // (bỏ OP_READ) đến khi inbound xử lý bớt còn một nửa
+    private final AtomicInteger inboundQueued = new AtomicInteger();
+    private final AtomicBoolean readPaused = new AtomicBoolean();
+    private ByteBuffer readBuffer = ByteBuffer.allocate(INITIAL_READ_BUFFER);
+    // Các frame đã lấy khỏi hàng đợi nhưng chưa ghi hết, chỉ dùng trên thread reactor
+    private final List<ByteBuffer> drained = new ArrayList<>();
+    private ByteBuffer[] inFlight = NO_FRAMES;
+    private int inFlightOffset;
+    private SelectionKey key;
+    private String remoteAddress;
+    // Chỉ dùng trên thread reactor: đã xem hai byte đầu để biết client mới hay cũ
+    private boolean framingKnown;
+    private volatile StreamFeed legacyFeed;
+
+    public NioConnection(SocketChannel channel, NioReactor reactor, Executor workers) {
+        this.channel = channel;
+        this.reactor = reactor;
+        this.inbound = new SerialExecutor(workers);
+        try {
+            this.remoteAddress = String.valueOf(channel.getRemoteAddress());
+        } catch (IOException e) {
+            this.remoteAddress = "client";
+        }
+    }
+
+    void attach(SelectionKey key, ClientHandler handler) {
+        this.key = key;
+        setHandler(handler);
+        queueStreamHeader();
+    }
+
+    // Thread reactor: đọc hết dữ liệu có sẵn và tách thành từng frame
+    void onReadable() {
+        int read;
+        try {
+            read = channel.read(readBuffer);
+        } catch (IOException e) {
+            close();
+            return;
+        }
+        if (read < 0) {
+            close();
+            return;
+        }
+
+        readBuffer.flip();
+        if (!framingKnown) {
+            if (readBuffer.remaining() < 2) {
+                readBuffer.compact();
+                return;
+            }
+            framingKnown = true;
+            if (Protocol.isStreamHeader(readBuffer.get(0) & 0xFF, readBuffer.get(1) & 0xFF)) {
+                startLegacyStream();
+            }
+        }
+        if (legacyFeed != null) {
+            byte[] data = new byte[readBuffer.remaining()];
+            readBuffer.get(data);
+            readBuffer.clear();
+            if (!legacyFeed.feed(data)) {
+                System.out.println("Client cũ " + remoteAddress + " gửi quá nhiều dữ liệu chưa xử lý");
+                close();
+            }
+            return;
+        }
+        int needed = 0;
+        try {
+            while (readBuffer.remaining() >= Frames.HEADER_LENGTH) {
+                int length = readBuffer.getInt(readBuffer.position());
+                Frames.checkLength(length);
+                if (readBuffer.remaining() < Frames.HEADER_LENGTH + length) {
+                    needed = Frames.HEADER_LENGTH + length;
+                    break;
+                }
+                readBuffer.getInt();
+                byte[] payload = new byte[length];
+                readBuffer.get(payload);
+                dispatch(codec.decode(payload));
+            }
+        } catch (IOException e) {
+            System.out.println("Frame không hợp lệ từ " + remoteAddress + ": " + e.getMessage());
+            close();
+            return;
+        }
+        readBuffer.compact();
+
+        if (needed > readBuffer.capacity()) {
+            // Frame lớn hơn buffer hiện tại: nới rộng cho riêng frame này
+            ByteBuffer bigger = ByteBuffer.allocate(needed);
+            readBuffer.flip();
+            bigger.put(readBuffer);
+            readBuffer = bigger;
+        } else if (readBuffer.position() == 0 && readBuffer.capacity() > INITIAL_READ_BUFFER) {
+            // Trả lại bộ nhớ khi client đã rảnh
+            readBuffer = ByteBuffer.allocate(INITIAL_READ_BUFFER);
+        }
+    }
+
+    private void startLegacyStream() {
+        codec.useLegacyStream();
+        legacyFeed = new StreamFeed(Frames.MAX_FRAME_LENGTH);
+        Thread.ofVirtual().name("legacy-reader-" + remoteAddress).start(this::readLegacyStream);
+    }
+
+    // Thread riêng của client cũ: giải mã liên tục, tin nhắn vẫn xử lý tuần tự qua inbound
+    private void readLegacyStream() {
+        try {
+            MessageInputStream objects = new MessageInputStream(legacyFeed);
+            while (!closed.get()) {
+                dispatch(objects.readMessage());
+            }
+        } catch (IOException e) {
+            if (!closed.get()) {
+                System.out.println("Stream không hợp lệ từ " + remoteAddress + ": " + e.getMessage());
+            }
+            close();
+        }
+    }
+
+    private void dispatch(Message message) {
+        if (message == null) {
+            return;
+        }
+        if (inboundQueued.incrementAndGet() >= ServerConfig.NIO_INBOUND_MAX
+                && readPaused.compareAndSet(false, true)) {
+            reactor.execute(() -> setReading(false));
+        }
+        inbound.execute(() -> {
+            try {
+                if (closed.get()) {
+                    return;
+                }
+                handler.onMessage(message);
+            } catch (Exception e) {
+                close();
+            } finally {
+                if (inboundQueued.decrementAndGet() <= ServerConfig.NIO_INBOUND_MAX / 2
+                        && readPaused.compareAndSet(true, false)) {
+                    reactor.execute(() -> setReading(true));
+                }
+            }
+        });
+    }
+
+    // Thread reactor: bật/tắt OP_READ, giữ nguyên OP_WRITE
+    private void setReading(boolean reading) {
+        if (key == null || !key.isValid()) {
+            return;
+        }
+        try {
+            if (reading) {
+                key.interestOpsOr(SelectionKey.OP_READ);
+            } else {
+                key.interestOpsAnd(~SelectionKey.OP_READ);
+            }
+        } catch (CancelledKeyException e) {
+            // Kết nối vừa đóng
+        }
+    }
+
+    // Thread reactor: gom các frame đang chờ và ghi bằng một lệnh gathering write
+    void onWritable() {
+        if (key == null || !key.isValid()) {
+            return;
+        }
+        try {
+            while (true) {
+                if (inFlightOffset == inFlight.length) {
+                    if (outbound.drainTo(drained) == 0) {
+                        key.interestOpsAnd(~SelectionKey.OP_WRITE);
+                        writeScheduled.set(false);
+                        // Có frame mới được thêm vào sau lần kiểm tra cuối
+                        if (outbound.size() == 0 || !writeScheduled.compareAndSet(false, true)) {
+                            return;
+                        }
+                        continue;
+                    }
+                    inFlight = drained.toArray(NO_FRAMES);
+                    inFlightOffset = 0;
+                    drained.clear();
+                }
+                channel.write(inFlight, inFlightOffset, inFlight.length - inFlightOffset);
+                while (inFlightOffset < inFlight.length && !inFlight[inFlightOffset].hasRemaining()) {
+                    inFlight[inFlightOffset++] = null;
+                }
+                if (inFlightOffset < inFlight.length) {
+                    // Socket đầy, chờ OP_WRITE (OP_READ có thể đang tắt do inbound đầy)
+                    key.interestOpsOr(SelectionKey.OP_WRITE);
+                    return;
+                }
+            }
+        } catch (IOException | CancelledKeyException e) {
+            close();
+        }
+    }
+
+    @Override
+    protected void onFrameQueued() {
+        if (writeScheduled.compareAndSet(false, true)) {
+            reactor.execute(this::onWritable);
+        }
+    }
+
+    @Override
+    public void close() {
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+        outbound.close();
+        if (legacyFeed != null) {
+            legacyFeed.close();
+        }
+        reactor.execute(() -> {
+            // Cố gắng đẩy nốt các frame còn lại (vd: logout_success) trước khi đóng
+            if (key != null && key.isValid()) {
+                try {
+                    for (int i = inFlightOffset; i < inFlight.length; i++) {
+                        drained.add(i - inFlightOffset, inFlight[i]);
+                    }
+                    outbound.drainTo(drained);
+                    for (ByteBuffer frame : drained) {
+                        channel.write(frame);
+                        if (frame.hasRemaining()) {
+                            break;
+                        }
+                    }
+                } catch (IOException e) {
+                    // Bỏ qua, kết nối đằng nào cũng đóng
+                }
+                drained.clear();
+                key.cancel();
+            }
+            try {
+                channel.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        });
+        if (handler != null) {
+            inbound.execute(handler::onDisconnect);
+        }
+    }
+
+    @Override
+    public String getRemoteAddress() {
+        return remoteAddress;
+    }
+}
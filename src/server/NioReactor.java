@@ -0,0 +1,78 @@
+package server;
+
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+// Một thread, một Selector; phục vụ đọc/ghi cho nhiều kết nối.
+// Mọi thao tác lên SelectionKey đều được đẩy vào hàng đợi và chạy trên thread này.
+public class NioReactor implements Runnable {
+    private final NioServer nioServer;
+    private final Selector selector;
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+
+    public NioReactor(NioServer nioServer) throws IOException {
+        this.nioServer = nioServer;
+        this.selector = Selector.open();
+    }
+
+    public void register(SocketChannel channel) {
+        execute(() -> {
+            NioConnection connection = new NioConnection(channel, this, nioServer.getWorkers());
+            try {
+                SelectionKey key = channel.register(selector, SelectionKey.OP_READ, connection);
+                connection.attach(key, nioServer.createHandler(connection));
+            } catch (ClosedChannelException e) {
+                connection.close();
+            }
+        });
+    }
+
+    public void execute(Runnable task) {
+        tasks.add(task);
+        selector.wakeup();
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+            try {
+                selector.select();
+                Runnable task;
+                while ((task = tasks.poll()) != null) {
+                    try {
+                        task.run();
+                    } catch (RuntimeException e) {
+                        e.printStackTrace();
+                    }
+                }
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    NioConnection connection = (NioConnection) key.attachment();
+                    // Lỗi của một kết nối (frame độc, lỗi lập trình) chỉ đóng kết nối đó,
+                    // không làm chết thread reactor cùng mọi kết nối khác trên Selector này
+                    try {
+                        if (key.isValid() && key.isReadable()) {
+                            connection.onReadable();
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            connection.onWritable();
+                        }
+                    } catch (RuntimeException | StackOverflowError e) {
+                        System.out.println("Lỗi khi xử lý kết nối " + connection.getRemoteAddress() + ": " + e);
+                        connection.close();
+                    }
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package server;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Chế độ NIO: vài thread acceptor nhận kết nối rồi chia vòng tròn cho các reactor.
+// handleMessage vẫn chạy trên pool worker vì có gọi JDBC blocking.
+public class NioServer {
+    private static final int BACKLOG = 1024;
+
+    private final Server server;
+    private final DatabaseManager dbManager;
+    private final NioReactor[] reactors;
+    private final ExecutorService workers;
+    private final AtomicInteger nextReactor = new AtomicInteger();
+
+    public NioServer(Server server, DatabaseManager dbManager) throws IOException {
+        this.server = server;
+        this.dbManager = dbManager;
+        this.workers = Executors.newFixedThreadPool(ServerConfig.NIO_WORKERS);
+        this.reactors = new NioReactor[ServerConfig.NIO_REACTORS];
+        for (int i = 0; i < reactors.length; i++) {
+            reactors[i] = new NioReactor(this);
+        }
+    }
+
+    public void start() throws IOException {
+        for (int i = 0; i < reactors.length; i++) {
+            new Thread(reactors[i], "nio-reactor-" + i).start();
+        }
+
+        int acceptors = ServerConfig.NIO_ACCEPTORS;
+        boolean reusePort = acceptors > 1 && supportsReusePort();
+        if (acceptors > 1 && !reusePort) {
+            System.out.println("SO_REUSEPORT không được hỗ trợ, chỉ dùng một acceptor.");
+            acceptors = 1;
+        }
+        for (int i = 0; i < acceptors; i++) {
+            ServerSocketChannel channel = ServerSocketChannel.open();
+            channel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+            if (reusePort) {
+                channel.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+            }
+            channel.bind(new InetSocketAddress(ServerConfig.PORT), BACKLOG);
+            new Thread(() -> acceptLoop(channel), "nio-acceptor-" + i).start();
+        }
+        System.out.println("NIO: " + reactors.length + " reactor, " + acceptors + " acceptor, "
+                + ServerConfig.NIO_WORKERS + " worker.");
+    }
+
+    private boolean supportsReusePort() {
+        try (ServerSocketChannel probe = ServerSocketChannel.open()) {
+            return probe.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private void acceptLoop(ServerSocketChannel channel) {
+        while (true) {
+            try {
+                SocketChannel socketChannel = channel.accept();
+                socketChannel.configureBlocking(false);
+                socketChannel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                System.out.println("Đã có kết nối từ " + socketChannel.getRemoteAddress());
+                int index = Math.floorMod(nextReactor.getAndIncrement(), reactors.length);
+                reactors[index].register(socketChannel);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    // Gọi trên thread reactor khi kết nối đã được đăng ký với Selector
+    ClientHandler createHandler(NioConnection connection) {
+        return new ClientHandler(connection, server, dbManager);
+    }
+
+    ExecutorService getWorkers() {
+        return workers;
+    }
+}
@@ -0,0 +1,109 @@
+package server;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Hàng đợi gửi đi của một kết nối, giới hạn theo tổng số byte.
+// Bên gửi không bao giờ bị chặn: khi đầy thì offer() trả về false.
+public class OutboundQueue {
+    private final ArrayDeque<ByteBuffer> frames = new ArrayDeque<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final int maxBytes;
+    private int queuedBytes;
+    private int peakDepth;
+    private boolean closed;
+
+    public OutboundQueue(int maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    // Frame lớn hơn giới hạn vẫn được nhận nếu hàng đợi đang trống
+    public boolean offer(ByteBuffer frame) {
+        lock.lock();
+        try {
+            if (closed || (!frames.isEmpty() && queuedBytes + frame.remaining() > maxBytes)) {
+                return false;
+            }
+            frames.add(frame);
+            queuedBytes += frame.remaining();
+            peakDepth = Math.max(peakDepth, frames.size());
+            notEmpty.signal();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Lấy hết các frame đang chờ mà không chặn; trả về số frame đã lấy
+    public int drainTo(List<ByteBuffer> batch) {
+        lock.lock();
+        try {
+            return drainLocked(batch);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Chờ tới khi có frame rồi lấy hết; trả về false khi hàng đợi đã đóng và trống
+    public boolean awaitAndDrain(List<ByteBuffer> batch) throws InterruptedException {
+        lock.lock();
+        try {
+            while (frames.isEmpty() && !closed) {
+                notEmpty.await();
+            }
+            return drainLocked(batch) > 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private int drainLocked(List<ByteBuffer> batch) {
+        int count = frames.size();
+        batch.addAll(frames);
+        frames.clear();
+        queuedBytes = 0;
+        return count;
+    }
+
+    // Không nhận thêm frame; các frame còn lại vẫn được lấy ra để gửi nốt
+    public void close() {
+        lock.lock();
+        try {
+            closed = true;
+            notEmpty.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int size() {
+        lock.lock();
+        try {
+            return frames.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int bytes() {
+        lock.lock();
+        try {
+            return queuedBytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int peakSize() {
+        lock.lock();
+        try {
+            return peakDepth;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,253 @@
+package server;
+
+import common.Message;
+import common.PresenceUpdate;
+import common.User;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Trạng thái online/ingame/offline của người chơi được giữ trong bộ nhớ (nguồn chính xác duy nhất).
+// Mỗi thay đổi tăng số phiên bản; các thay đổi trong một cửa sổ ngắn được gom thành một frame
+// presence_delta gửi cho các client. Cột users.status trong MySQL chỉ được ghi bất đồng bộ theo lô
+// nên đăng nhập/bắt đầu trận không phải chờ database.
+// Client có thể khai báo tập người chơi đang hiển thị (presence_interest); khi đó chỉ nhận thay đổi
+// của những người đó. Client chưa khai báo (client cũ, vừa đăng nhập) vẫn nhận mọi thay đổi.
+public class PresenceService {
+    public static final String ONLINE = "online";
+    public static final String INGAME = "ingame";
+    public static final String OFFLINE = "offline";
+
+    private final Server server;
+    private final DatabaseManager dbManager;
+    private final ConcurrentHashMap<Integer, PresenceUpdate> entries = new ConcurrentHashMap<>();
+    private final AtomicLong version = new AtomicLong();
+    // Số thay đổi đã nhìn thấy được qua getStatus (version tăng trước khi trạng thái mới được lưu)
+    private final AtomicLong published = new AtomicLong();
+    // Người chơi có trạng thái chưa được ghi xuống MySQL
+    private final Set<Integer> pendingWrites = ConcurrentHashMap.newKeySet();
+    // Thay đổi mới nhất của từng người chơi chưa được gửi cho client
+    private final ConcurrentHashMap<Integer, PresenceUpdate> pendingDeltas = new ConcurrentHashMap<>();
+    private final AtomicLong deltaFrames = new AtomicLong();
+    // Tập quan tâm của từng client và chỉ mục ngược userId -> các client quan tâm
+    private final ConcurrentHashMap<ClientHandler, Set<Integer>> interests = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Integer, Set<ClientHandler>> subscribers = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService scheduler;
+
+    public PresenceService(Server server, DatabaseManager dbManager) throws SQLException {
+        this.server = server;
+        this.dbManager = dbManager;
+        // Server vừa khởi động thì chưa ai online, bỏ trạng thái sót lại từ lần chạy trước
+        dbManager.resetUserStatuses();
+        // Hai thread để việc ghi MySQL chậm không làm trễ các frame delta
+        scheduler = Executors.newScheduledThreadPool(2, r -> {
+            Thread t = new Thread(r, "presence");
+            t.setDaemon(true);
+            return t;
+        });
+        scheduler.scheduleWithFixedDelay(this::publishDeltas,
+                ServerConfig.PRESENCE_DELTA_MILLIS, ServerConfig.PRESENCE_DELTA_MILLIS, TimeUnit.MILLISECONDS);
+        scheduler.scheduleWithFixedDelay(this::flush,
+                ServerConfig.PRESENCE_FLUSH_MILLIS, ServerConfig.PRESENCE_FLUSH_MILLIS, TimeUnit.MILLISECONDS);
+        Runtime.getRuntime().addShutdownHook(new Thread(this::flush, "presence-final-flush"));
+    }
+
+    // Kiểm tra và chuyển sang online trong một bước, để hai lần đăng nhập cùng lúc
+    // vào một tài khoản không thể cùng thành công
+    public boolean tryLogin(User user) {
+        PresenceUpdate[] changed = new PresenceUpdate[1];
+        entries.compute(user.getId(), (id, current) -> {
+            if (current != null && !OFFLINE.equals(current.getStatus())) {
+                return current;
+            }
+            changed[0] = new PresenceUpdate(id, user.getUsername(), ONLINE, version.incrementAndGet());
+            return changed[0];
+        });
+        if (changed[0] == null) {
+            return false;
+        }
+        publish(user, changed[0]);
+        return true;
+    }
+
+    // Đổi trạng thái; không làm gì nếu trạng thái không đổi
+    public void update(User user, String status) {
+        PresenceUpdate[] changed = new PresenceUpdate[1];
+        entries.compute(user.getId(), (id, current) -> {
+            if (current != null && current.getStatus().equals(status)) {
+                return current;
+            }
+            changed[0] = new PresenceUpdate(id, user.getUsername(), status, version.incrementAndGet());
+            return changed[0];
+        });
+        if (changed[0] != null) {
+            publish(user, changed[0]);
+        }
+    }
+
+    public String getStatus(int userId) {
+        PresenceUpdate entry = entries.get(userId);
+        return entry != null ? entry.getStatus() : OFFLINE;
+    }
+
+    // Ghi đè trạng thái đọc từ MySQL (có thể chậm hơn một chu kỳ ghi) bằng trạng thái trong bộ nhớ
+    public List<User> overlay(List<User> users) {
+        for (User user : users) {
+            user.setStatus(getStatus(user.getId()));
+        }
+        return users;
+    }
+
+    public long getVersion() {
+        return version.get();
+    }
+
+    public long getPublishedVersion() {
+        return published.get();
+    }
+
+    public int getPendingWrites() {
+        return pendingWrites.size();
+    }
+
+    public long getDeltaFrames() {
+        return deltaFrames.get();
+    }
+
+    public int getSubscriberCount() {
+        return interests.size();
+    }
+
+    // Thay tập quan tâm của client; trạng thái hiện tại của những người mới vào tập được gửi ngay
+    // vì client có thể đang giữ trạng thái cũ của họ
+    public void setInterest(ClientHandler client, int[] userIds) {
+        Set<Integer> next = new HashSet<>();
+        for (int i = 0; i < userIds.length && i < ServerConfig.PRESENCE_MAX_INTEREST; i++) {
+            next.add(userIds[i]);
+        }
+        Set<Integer> previous = interests.put(client, next);
+        if (previous != null) {
+            for (Integer userId : previous) {
+                if (!next.contains(userId)) {
+                    unsubscribe(userId, client);
+                }
+            }
+        }
+        List<PresenceUpdate> snapshot = new ArrayList<>();
+        for (Integer userId : next) {
+            if (previous != null && previous.contains(userId)) {
+                continue;
+            }
+            subscribers.compute(userId, (id, set) -> {
+                if (set == null) {
+                    set = ConcurrentHashMap.newKeySet();
+                }
+                set.add(client);
+                return set;
+            });
+            PresenceUpdate current = entries.get(userId);
+            if (current != null) {
+                snapshot.add(current);
+            }
+        }
+        if (!snapshot.isEmpty()) {
+            client.sendMessage(new Message("presence_delta", snapshot));
+        }
+    }
+
+    public void removeInterest(ClientHandler client) {
+        Set<Integer> previous = interests.remove(client);
+        if (previous != null) {
+            for (Integer userId : previous) {
+                unsubscribe(userId, client);
+            }
+        }
+    }
+
+    private void unsubscribe(Integer userId, ClientHandler client) {
+        subscribers.computeIfPresent(userId, (id, set) -> {
+            set.remove(client);
+            return set.isEmpty() ? null : set;
+        });
+    }
+
+    private void publish(User user, PresenceUpdate update) {
+        published.incrementAndGet();
+        user.setStatus(update.getStatus());
+        server.getSearchIndex().statusChanged(user.getId(), user.getUsername());
+        pendingWrites.add(update.getUserId());
+        // Nhiều thay đổi của cùng người chơi trong một cửa sổ chỉ giữ lại bản mới nhất
+        pendingDeltas.merge(update.getUserId(), update,
+                (older, newer) -> newer.getVersion() > older.getVersion() ? newer : older);
+    }
+
+    // Gửi mọi thay đổi trong cửa sổ vừa qua bằng một lần broadcast
+    private void publishDeltas() {
+        if (pendingDeltas.isEmpty()) {
+            return;
+        }
+        List<PresenceUpdate> delta = new ArrayList<>(pendingDeltas.size());
+        List<Message> legacyMessages = new ArrayList<>(pendingDeltas.size());
+        for (Integer userId : pendingDeltas.keySet()) {
+            PresenceUpdate update = pendingDeltas.remove(userId);
+            if (update != null) {
+                delta.add(update);
+                // Client cũ dùng Java serialization không có lớp PresenceUpdate, vẫn nhận chuỗi status_update
+                legacyMessages.add(new Message("status_update", update.getUsername() + " is " + update.getStatus()));
+            }
+        }
+        deltaFrames.incrementAndGet();
+        try {
+            // Client chưa khai báo tập quan tâm nhận toàn bộ delta
+            server.broadcast(new Message("presence_delta", delta), legacyMessages,
+                    client -> !interests.containsKey(client));
+            // Client đã khai báo chỉ nhận thay đổi của những người họ đang thấy
+            Map<ClientHandler, List<PresenceUpdate>> scoped = new HashMap<>();
+            for (PresenceUpdate update : delta) {
+                Set<ClientHandler> interested = subscribers.get(update.getUserId());
+                if (interested == null) {
+                    continue;
+                }
+                for (ClientHandler client : interested) {
+                    scoped.computeIfAbsent(client, k -> new ArrayList<>()).add(update);
+                }
+            }
+            for (Map.Entry<ClientHandler, List<PresenceUpdate>> entry : scoped.entrySet()) {
+                entry.getKey().sendMessage(new Message("presence_delta", entry.getValue()));
+            }
+        } catch (RuntimeException e) {
+            // Không để lỗi làm dừng tác vụ định kỳ
+            e.printStackTrace();
+        }
+    }
+
+    // Ghi trạng thái mới nhất của những người chơi đã thay đổi trong một lô
+    private void flush() {
+        if (pendingWrites.isEmpty()) {
+            return;
+        }
+        Map<Integer, String> batch = new HashMap<>();
+        for (Integer userId : pendingWrites) {
+            // Xóa trước khi đọc: nếu trạng thái đổi tiếp thì người chơi sẽ được đánh dấu lại
+            pendingWrites.remove(userId);
+            batch.put(userId, getStatus(userId));
+        }
+        try {
+            dbManager.updateUserStatuses(batch);
+        } catch (SQLException e) {
+            e.printStackTrace();
+            // Thử lại ở chu kỳ sau
+            pendingWrites.addAll(batch.keySet());
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package server;
+
+import common.Message;
+import common.Protocol;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Phần chung của các kết nối: mã hóa trên thread gọi send() rồi xếp vào OutboundQueue,
+// việc ghi socket do writer riêng (blocking) hoặc reactor (NIO) đảm nhận.
+public abstract class QueuedConnection implements ClientConnection {
+    protected final NegotiatingCodec codec = new NegotiatingCodec();
+    protected final OutboundQueue outbound = new OutboundQueue(ServerConfig.OUTBOUND_MAX_BYTES);
+    protected final AtomicBoolean closed = new AtomicBoolean();
+    protected ClientHandler handler;
+    // Mã hóa và xếp hàng phải cùng thứ tự vì codec Java serialization giữ trạng thái handle
+    private final ReentrantLock encodeLock = new ReentrantLock();
+
+    public void setHandler(ClientHandler handler) {
+        this.handler = handler;
+    }
+
+    @Override
+    public void send(Message message) {
+        if (closed.get()) {
+            System.out.println("Socket đã đóng, không thể gửi tin nhắn tới " + describe());
+            return;
+        }
+        boolean accepted;
+        encodeLock.lock();
+        try {
+            accepted = outbound.offer(codec.encodeFrame(message));
+        } catch (IOException e) {
+            System.out.println("Lỗi khi gửi tin nhắn tới " + describe() + ": " + e.getMessage());
+            abort();
+            return;
+        } finally {
+            encodeLock.unlock();
+        }
+        if (!accepted) {
+            handleOverflow();
+            return;
+        }
+        onFrameQueued();
+    }
+
+    @Override
+    public boolean sendEncoded(ByteBuffer frame) {
+        if (!codec.isBinary()) {
+            return false;
+        }
+        if (closed.get()) {
+            return true;
+        }
+        if (!outbound.offer(frame)) {
+            handleOverflow();
+            return true;
+        }
+        onFrameQueued();
+        return true;
+    }
+
+    @Override
+    public boolean isBinary() {
+        return codec.isBinary();
+    }
+
+    // Gửi ngay khi nhận kết nối, trước mọi tin nhắn: client cũ chờ header này trước khi gửi gì
+    protected void queueStreamHeader() {
+        outbound.offer(ByteBuffer.wrap(Protocol.STREAM_HEADER));
+        onFrameQueued();
+    }
+
+    private void handleOverflow() {
+        if (!closed.get()) {
+            // Client không đọc kịp: ngắt kết nối thay vì để hàng đợi phình ra
+            System.out.println("Hàng đợi gửi tới " + describe() + " đã đầy ("
+                    + outbound.bytes() + " byte), ngắt kết nối.");
+            abort();
+        }
+    }
+
+    // Ngắt ngay, không gửi nốt các frame đang chờ (client không đọc hoặc stream đã hỏng).
+    // Mặc định như close(); kết nối blocking ghi bằng thread riêng nên phải đóng socket để gỡ thread đó.
+    protected void abort() {
+        close();
+    }
+
+    // Tên người chơi, hoặc địa chỉ khi kết nối chưa gắn với ClientHandler
+    protected String describe() {
+        return handler != null ? handler.getDisplayName() : getRemoteAddress();
+    }
+
+    // Báo cho writer/reactor biết có frame mới
+    protected abstract void onFrameQueued();
+
+    @Override
+    public boolean isOpen() {
+        return !closed.get();
+    }
+
+    @Override
+    public int getOutboundDepth() {
+        return outbound.size();
+    }
+
+    @Override
+    public int getPeakOutboundDepth() {
+        return outbound.peakSize();
+    }
+
+    @Override
+    public int getSerializationHandles() {
+        return codec.getLegacyHandleCount();
+    }
+}
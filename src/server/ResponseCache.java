@@ -0,0 +1,104 @@
+package server;
+
+import common.BinaryMessageCodec;
+import common.Frames;
+import common.Message;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.sql.SQLException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Bộ đệm phản hồi đã mã hóa cho các yêu cầu đọc giống nhau của mọi người chơi (user_list, leaderboard).
+// Mỗi mục gắn một phiên bản do người gọi tính từ dữ liệu nguồn; khi phiên bản tăng, yêu cầu đầu tiên
+// nạp lại và mã hóa một lần, các yêu cầu đến trong lúc đó chờ chung kết quả đó thay vì tự truy vấn.
+public class ResponseCache {
+    private final BinaryMessageCodec codec = new BinaryMessageCodec();
+    private final ConcurrentHashMap<String, Slot> slots = new ConcurrentHashMap<>();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong builds = new AtomicLong();
+    private final AtomicLong collapsed = new AtomicLong();
+
+    public interface Loader {
+        Message load() throws SQLException;
+    }
+
+    // Gửi phản hồi cho key ở phiên bản version (hoặc mới hơn), nạp bằng loader nếu chưa có
+    public void send(ClientHandler client, String key, long version, Loader loader)
+            throws IOException, SQLException {
+        Slot[] created = new Slot[1];
+        Slot slot = slots.compute(key, (k, current) -> {
+            if (current != null && current.version >= version) {
+                return current;
+            }
+            created[0] = new Slot(version);
+            return created[0];
+        });
+        if (slot == created[0]) {
+            builds.incrementAndGet();
+            load(key, slot, loader);
+        } else if (slot.response.isDone()) {
+            hits.incrementAndGet();
+        } else {
+            collapsed.incrementAndGet();
+        }
+        Response response;
+        try {
+            response = slot.response.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof SQLException) {
+                throw (SQLException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+        if (!client.getConnection().sendEncoded(response.frame.duplicate())) {
+            // Client cũ dùng Java serialization
+            client.sendMessage(response.message);
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getBuilds() {
+        return builds.get();
+    }
+
+    public long getCollapsed() {
+        return collapsed.get();
+    }
+
+    private void load(String key, Slot slot, Loader loader) {
+        try {
+            Message message = loader.load();
+            slot.response.complete(new Response(message, Frames.wrap(codec.encode(message))));
+        } catch (SQLException | IOException | RuntimeException e) {
+            // Những người đang chờ cũng nhận lỗi; lần yêu cầu sau sẽ nạp lại
+            slots.remove(key, slot);
+            slot.response.completeExceptionally(e);
+        }
+    }
+
+    private static class Slot {
+        final long version;
+        final CompletableFuture<Response> response = new CompletableFuture<>();
+
+        Slot(long version) {
+            this.version = version;
+        }
+    }
+
+    private static class Response {
+        final Message message;
+        final ByteBuffer frame;
+
+        Response(Message message, ByteBuffer frame) {
+            this.message = message;
+            this.frame = frame;
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package server;
+
+import java.util.List;
+
+// Một trang kết quả phân trang theo khóa (keyset): các dòng của trang và con trỏ để lấy trang sau
+// (id trận nhỏ nhất của trang; 0 nếu đã hết)
+public class ResultPage<T> {
+    private final List<T> items;
+    private final int nextCursor;
+
+    public ResultPage(List<T> items, int nextCursor) {
+        this.items = items;
+        this.nextCursor = nextCursor;
+    }
+
+    public List<T> getItems() {
+        return items;
+    }
+
+    public int getNextCursor() {
+        return nextCursor;
+    }
+}
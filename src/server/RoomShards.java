@@ -0,0 +1,38 @@
+package server;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+// Các shard xử lý GameRoom: mỗi shard là một thread, mỗi phòng gắn cố định vào một shard
+// nên sự kiện của một phòng luôn chạy tuần tự, còn các phòng khác nhau chia đều theo số core.
+// JDBC của phòng đi qua MatchWriter nên không chạy trên shard.
+public class RoomShards {
+    private final ThreadPoolExecutor[] shards;
+
+    public RoomShards(int shardCount) {
+        shards = new ThreadPoolExecutor[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            String name = "room-shard-" + i;
+            shards[i] = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(), r -> {
+                Thread t = new Thread(r, name);
+                t.setDaemon(true);
+                return t;
+            });
+        }
+    }
+
+    public Executor shardFor(int roomId) {
+        return shards[Math.floorMod(roomId, shards.length)];
+    }
+
+    // Tổng số sự kiện đang chờ trong hộp thư của các shard
+    public int getQueuedEvents() {
+        int queued = 0;
+        for (ThreadPoolExecutor shard : shards) {
+            queued += shard.getQueue().size();
+        }
+        return queued;
+    }
+}
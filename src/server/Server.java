@@ -1,53 +1,263 @@
 package server;
 
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
 import common.Message;
 import common.User;
 
 public class Server {
-    private static final int PORT = 12345;
     private ServerSocket serverSocket;
     private DatabaseManager dbManager;
     private ConcurrentHashMap<Integer, ClientHandler> clientMap = new ConcurrentHashMap<>();
+    private final ServerConfig.Mode mode;
+    private final AtomicInteger openConnections = new AtomicInteger();
+    private final Broadcaster broadcaster =
+            new Broadcaster(ServerConfig.BROADCAST_THREADS, ServerConfig.BROADCAST_CHUNK);
+    // Thread đọc/ghi của mỗi kết nối ở chế độ BLOCKING và VIRTUAL
+    private final ThreadFactory sessionThreads;
+    private PresenceService presence;
+    private UserSearchIndex searchIndex;
+    private final ChatTopics chat = new ChatTopics(this);
+    private final TimerWheel timer = new TimerWheel(ServerConfig.TIMER_TICK_MILLIS,
+            ServerConfig.TIMER_WHEEL_SIZE, ServerConfig.TIMER_THREADS);
+    private final RoomShards roomShards = new RoomShards(ServerConfig.ROOM_SHARDS);
+    private MatchWriter matchWriter;
+    private HistoryCache historyCache;
+    private StorageMigration storageMigration;
+    private final ResponseCache responseCache = new ResponseCache();
+    private final Leaderboard leaderboard = new Leaderboard(ServerConfig.USER_DIRECTORY_LOG);
 
-    public Server() {
+    public Server(ServerConfig.Mode mode) {
+        this.mode = mode;
+        this.sessionThreads = mode == ServerConfig.Mode.VIRTUAL
+                ? Thread.ofVirtual().name("client-", 0).factory()
+                : Thread.ofPlatform().name("client-", 0).factory();
         try {
-            serverSocket = new ServerSocket(PORT);
             dbManager = new DatabaseManager();
-            System.out.println("Server đã khởi động trên cổng " + PORT);
-            listenForClients();
+            dbManager.prepareCompactStorage();
+            presence = new PresenceService(this, dbManager);
+            List<User> users = dbManager.getLeaderboard();
+            leaderboard.rebuild(users);
+            System.out.println("Đã nạp bảng xếp hạng: " + leaderboard.size() + " người chơi");
+            searchIndex = new UserSearchIndex(presence);
+            searchIndex.rebuild(users);
+            historyCache = new HistoryCache(dbManager, ServerConfig.HISTORY_CACHE_BYTES);
+            matchWriter = new MatchWriter(dbManager, leaderboard, historyCache, ServerConfig.MATCH_WRITE_BATCH,
+                    ServerConfig.MATCH_WRITE_FLUSH_MILLIS, ServerConfig.MATCH_WRITE_QUEUE,
+                    ServerConfig.MATCH_WRITE_RETRIES);
+            storageMigration = new StorageMigration(dbManager, ServerConfig.STORAGE_MIGRATION_BATCH,
+                    ServerConfig.STORAGE_MIGRATION_PAUSE_MILLIS, ServerConfig.STORAGE_DROP_LEGACY_COLUMNS);
+            storageMigration.start();
+            startStatsReporter();
+            if (mode == ServerConfig.Mode.NIO) {
+                new NioServer(this, dbManager).start();
+                System.out.println("Server đã khởi động trên cổng " + ServerConfig.PORT + " (NIO)");
+            } else {
+                serverSocket = new ServerSocket(ServerConfig.PORT);
+                System.out.println("Server đã khởi động trên cổng " + ServerConfig.PORT + " (" + mode + ")");
+                listenForClients();
+            }
         } catch (IOException | SQLException e) {
             e.printStackTrace();
         }
     }
 
+    // Không dùng synchronized ở đây: clientMap đã thread-safe, và giữ monitor
+    // trong lúc ghi socket sẽ ghim (pin) carrier thread ở chế độ VIRTUAL.
+
     // Thêm client vào bản đồ
-    public synchronized void addClient(int userId, ClientHandler clientHandler) {
+    public void addClient(int userId, ClientHandler clientHandler) {
         clientMap.put(userId, clientHandler);
     }
 
     // Lấy client theo ID
-    public synchronized ClientHandler getClientById(int userId) {
+    public ClientHandler getClientById(int userId) {
         return clientMap.get(userId);
     }
 
     // Loại bỏ client khỏi bản đồ
-    public synchronized void removeClient(ClientHandler clientHandler) {
+    public void removeClient(ClientHandler clientHandler) {
         if (clientHandler.getUser() != null) {
             clientMap.remove(clientHandler.getUser().getId());
         }
     }
 
+    public PresenceService getPresence() {
+        return presence;
+    }
+
+    public UserSearchIndex getSearchIndex() {
+        return searchIndex;
+    }
+
+    public ChatTopics getChat() {
+        return chat;
+    }
+
+    public TimerWheel getTimer() {
+        return timer;
+    }
+
+    public RoomShards getRoomShards() {
+        return roomShards;
+    }
+
+    public MatchWriter getMatchWriter() {
+        return matchWriter;
+    }
+
+    public Leaderboard getLeaderboard() {
+        return leaderboard;
+    }
+
+    public HistoryCache getHistoryCache() {
+        return historyCache;
+    }
+
+    public ResponseCache getResponseCache() {
+        return responseCache;
+    }
+
     // Gửi tin nhắn tới tất cả client
-    public synchronized void broadcast(Message message) {
+    public void broadcast(Message message) {
+        broadcaster.broadcast(snapshotConnections(), message);
+    }
+
+    // Như broadcast, nhưng client dùng Java serialization nhận legacyMessages
+    public void broadcast(Message message, List<Message> legacyMessages) {
+        broadcaster.broadcast(snapshotConnections(client -> true), message, legacyMessages);
+    }
+
+    // Chỉ gửi tới các client thỏa filter
+    public void broadcast(Message message, List<Message> legacyMessages, Predicate<ClientHandler> filter) {
+        broadcaster.broadcast(snapshotConnections(filter), message, legacyMessages);
+    }
+
+    // Gửi tới một nhóm client (ví dụ người đăng ký một chủ đề chat), vẫn mã hóa một lần
+    public void broadcastTo(List<ClientHandler> clients, Message message) {
+        List<ClientConnection> recipients = new ArrayList<>(clients.size());
+        for (ClientHandler client : clients) {
+            recipients.add(client.getConnection());
+        }
+        broadcaster.broadcast(recipients, message);
+    }
+
+    // Gửi tới một client; client dùng Java serialization nhận legacyMessages thay thế
+    public void sendTo(ClientHandler client, Message message, List<Message> legacyMessages) {
+        broadcaster.broadcast(Collections.singletonList(client.getConnection()), message, legacyMessages);
+    }
+
+    private List<ClientConnection> snapshotConnections() {
+        return snapshotConnections(client -> true);
+    }
+
+    private List<ClientConnection> snapshotConnections(Predicate<ClientHandler> filter) {
+        List<ClientConnection> recipients = new ArrayList<>(clientMap.size());
+        for (ClientHandler client : clientMap.values()) {
+            if (filter.test(client)) {
+                recipients.add(client.getConnection());
+            }
+        }
+        return recipients;
+    }
+
+    void connectionOpened() {
+        openConnections.incrementAndGet();
+    }
+
+    void connectionClosed() {
+        openConnections.decrementAndGet();
+    }
+
+    // In định kỳ số kết nối, số thread và bộ nhớ heap để so sánh các chế độ mạng
+    private void startStatsReporter() {
+        if (ServerConfig.STATS_INTERVAL <= 0) {
+            return;
+        }
+        ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "stats-reporter");
+            t.setDaemon(true);
+            return t;
+        });
+        reporter.scheduleAtFixedRate(this::printStats,
+                ServerConfig.STATS_INTERVAL, ServerConfig.STATS_INTERVAL, TimeUnit.SECONDS);
+    }
+
+    private void printStats() {
+        Runtime runtime = Runtime.getRuntime();
+        long usedHeap = runtime.totalMemory() - runtime.freeMemory();
+        int connections = openConnections.get();
+        // ThreadMXBean chỉ đếm platform thread, virtual thread không nằm trong số này
+        ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        int queued = 0;
+        int maxDepth = 0;
+        int maxHandles = 0;
         for (ClientHandler client : clientMap.values()) {
-            client.sendMessage(message);
+            ClientConnection connection = client.getConnection();
+            int depth = connection.getOutboundDepth();
+            queued += depth;
+            maxDepth = Math.max(maxDepth, depth);
+            maxHandles = Math.max(maxHandles, connection.getSerializationHandles());
         }
+        System.out.println("[stats] mode=" + mode
+                + " connections=" + connections
+                + " loggedIn=" + clientMap.size()
+                + " platformThreads=" + threadBean.getThreadCount()
+                + " peakPlatformThreads=" + threadBean.getPeakThreadCount()
+                + " broadcasts=" + broadcaster.getBroadcastCount()
+                + " deliveries=" + broadcaster.getDeliveryCount()
+                + " outboundQueued=" + queued
+                + " maxOutboundDepth=" + maxDepth
+                + " maxLegacyHandles=" + maxHandles
+                + " presenceVersion=" + presence.getVersion()
+                + " presencePendingWrites=" + presence.getPendingWrites()
+                + " presenceDeltaFrames=" + presence.getDeltaFrames()
+                + " presenceSubscribers=" + presence.getSubscriberCount()
+                + " chatTopics=" + chat.getTopicCount()
+                + " pendingTimers=" + timer.getPendingCount()
+                + " roomQueuedEvents=" + roomShards.getQueuedEvents()
+                + " matchWriteQueued=" + matchWriter.getQueued()
+                + " matchWriteBatches=" + matchWriter.getBatches()
+                + " matchWriteEvents=" + matchWriter.getWrittenEvents()
+                + " matchWriteSpilled=" + matchWriter.getSpilledEvents()
+                + " matchWriteRefused=" + matchWriter.getRefusedMatches()
+                + " matchWriteDropped=" + matchWriter.getDroppedEvents()
+                + " dbActive=" + dbManager.getPool().getActive()
+                + " dbIdle=" + dbManager.getPool().getIdle()
+                + " dbAvgWaitMicros=" + dbManager.getPool().getAverageWaitMicros()
+                + " dbTimeouts=" + dbManager.getPool().getTimeouts()
+                + " dbLeaks=" + dbManager.getPool().getLeaks()
+                + " dbStatementHits=" + dbManager.getPool().getStatementHits()
+                + " dbStatementMisses=" + dbManager.getPool().getStatementMisses()
+                + " dbStatementEvictions=" + dbManager.getPool().getStatementEvictions()
+                + " historyCacheEntries=" + historyCache.getEntries()
+                + " historyCacheKB=" + historyCache.getBytes() / 1024
+                + " historyCacheHits=" + historyCache.getHits()
+                + " historyCacheMisses=" + historyCache.getMisses()
+                + " historyCacheHitPct=" + historyCache.getHitPercent()
+                + " historyCacheEvictions=" + historyCache.getEvictions()
+                + " historyCacheInvalidations=" + historyCache.getInvalidations()
+                + " responseCacheHits=" + responseCache.getHits()
+                + " responseCacheBuilds=" + responseCache.getBuilds()
+                + " responseCacheCollapsed=" + responseCache.getCollapsed()
+                + " storageMigrationBatches=" + storageMigration.getBatches()
+                + " storageMigrationDone=" + storageMigration.isDone()
+                + " heapUsedKB=" + usedHeap / 1024
+                + " heapPerConnKB=" + (connections > 0 ? usedHeap / 1024 / connections : 0));
     }
 
     // Lắng nghe kết nối từ client
@@ -56,8 +266,9 @@ public class Server {
             try {
                 Socket socket = serverSocket.accept();
                 System.out.println("Đã có kết nối từ " + socket.getInetAddress());
-                ClientHandler clientHandler = new ClientHandler(socket, this, dbManager);
-                new Thread(clientHandler).start();
+                BlockingConnection connection = new BlockingConnection(socket);
+                connection.setHandler(new ClientHandler(connection, this, dbManager));
+                connection.start(sessionThreads);
             } catch (IOException e) {
                 e.printStackTrace();
             }
@@ -65,6 +276,6 @@ public class Server {
     }
 
     public static void main(String[] args) {
-        new Server();
+        new Server(ServerConfig.mode(args));
     }
 }
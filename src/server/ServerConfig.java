@@ -0,0 +1,125 @@
+package server;
+
+import common.SerializedMessageCodec;
+
+// Cấu hình khởi động của server, đọc từ system property (-Dpenalty.xxx=...)
+public final class ServerConfig {
+
+    public enum Mode {
+        BLOCKING, // mỗi kết nối một thread (mặc định)
+        VIRTUAL,  // như BLOCKING nhưng mỗi kết nối chạy trên một virtual thread
+        NIO       // reactor dùng Selector/SocketChannel
+    }
+
+    private static final int CORES = Runtime.getRuntime().availableProcessors();
+
+    public static final int PORT = Integer.getInteger("penalty.port", 12345);
+
+    // Số thread reactor, mỗi thread một Selector
+    public static final int NIO_REACTORS = Integer.getInteger("penalty.nio.reactors", Math.max(1, CORES / 2));
+    // Số acceptor; > 1 chỉ có tác dụng khi hệ điều hành hỗ trợ SO_REUSEPORT
+    public static final int NIO_ACCEPTORS = Integer.getInteger("penalty.nio.acceptors", 1);
+    // Số thread xử lý handleMessage (có gọi JDBC nên không chạy trên reactor)
+    public static final int NIO_WORKERS = Integer.getInteger("penalty.nio.workers", CORES * 4);
+    // Số tin nhắn đã nhận nhưng chưa xử lý tối đa của một kết nối NIO; vượt thì ngừng đọc socket
+    // đến khi còn một nửa
+    public static final int NIO_INBOUND_MAX = Integer.getInteger("penalty.nio.inboundMax", 256);
+
+    // Giới hạn hàng đợi gửi đi của mỗi kết nối (byte); vượt quá thì ngắt client chậm
+    public static final int OUTBOUND_MAX_BYTES = Integer.getInteger("penalty.outbound.maxBytes", 4 * 1024 * 1024);
+
+    // Broadcast: số thread chia việc và số người nhận mỗi phần
+    public static final int BROADCAST_THREADS = Integer.getInteger("penalty.broadcast.threads", CORES);
+    public static final int BROADCAST_CHUNK = Integer.getInteger("penalty.broadcast.chunk", 512);
+
+    // Chu kỳ reset() stream Java serialization của client cũ: theo số tin nhắn, số byte, số giây
+    public static final SerializedMessageCodec.ResetPolicy LEGACY_RESET_POLICY = new SerializedMessageCodec.ResetPolicy(
+            Integer.getInteger("penalty.legacy.resetMessages", 256),
+            Long.getLong("penalty.legacy.resetBytes", 256 * 1024L),
+            Long.getLong("penalty.legacy.resetSeconds", 60L) * 1000);
+
+    // Chu kỳ ghi trạng thái online/ingame/offline đang chờ xuống MySQL (ms)
+    public static final int PRESENCE_FLUSH_MILLIS = Integer.getInteger("penalty.presence.flushMillis", 500);
+
+    // Cửa sổ gom các thay đổi trạng thái thành một frame presence_delta (ms)
+    public static final int PRESENCE_DELTA_MILLIS = Integer.getInteger("penalty.presence.deltaMillis", 150);
+
+    // Số người chơi tối đa trong tập quan tâm presence của một client
+    public static final int PRESENCE_MAX_INTEREST = Integer.getInteger("penalty.presence.maxInterest", 512);
+
+    // Số dòng chat gần nhất mỗi chủ đề giữ lại cho người vào sau
+    public static final int CHAT_HISTORY = Integer.getInteger("penalty.chat.history", 20);
+
+    // Bộ hẹn giờ dùng chung: độ dài một tick (ms), số ô của bánh xe, số thread chạy tác vụ đến hạn
+    public static final int TIMER_TICK_MILLIS = Integer.getInteger("penalty.timer.tickMillis", 50);
+    public static final int TIMER_WHEEL_SIZE = Integer.getInteger("penalty.timer.wheelSize", 512);
+    public static final int TIMER_THREADS = Integer.getInteger("penalty.timer.threads", 2);
+
+    // Thời gian ân hạn sau hạn lượt hiển thị cho client trước khi server tự chọn nước mặc định (ms)
+    public static final int TURN_GRACE_MILLIS = Integer.getInteger("penalty.turn.graceMillis", 1000);
+
+    // Thời gian chờ cả hai người chơi trả lời yêu cầu chơi lại (giây), hết thì phòng đóng
+    public static final int REMATCH_REPLY_SECONDS = Integer.getInteger("penalty.rematch.replySeconds", 30);
+
+    // GameRoom: số shard, mỗi shard một thread
+    public static final int ROOM_SHARDS = Integer.getInteger("penalty.room.shards", CORES);
+
+    // Ghi trận đấu bất đồng bộ: số sự kiện tối đa mỗi lô/transaction, thời gian chờ gom lô (ms),
+    // số sự kiện chờ ghi tối đa (đạt thì trận mới bị từ chối; lượt sút/kết thúc của trận đang chơi
+    // vẫn được nhận, dồn sang danh sách tràn) và số lần thử lại một lô khi MySQL lỗi
+    public static final int MATCH_WRITE_BATCH = Integer.getInteger("penalty.matchWrite.batch", 256);
+    public static final int MATCH_WRITE_FLUSH_MILLIS = Integer.getInteger("penalty.matchWrite.flushMillis", 50);
+    public static final int MATCH_WRITE_QUEUE = Integer.getInteger("penalty.matchWrite.queue", 8192);
+    public static final int MATCH_WRITE_RETRIES = Integer.getInteger("penalty.matchWrite.retries", 3);
+
+    // Pool kết nối MySQL: số kết nối mở sẵn/tối đa, thời gian chờ mượn tối đa (ms),
+    // kết nối rảnh lâu hơn validateIdleMillis được kiểm tra trước khi dùng,
+    // kết nối bị giữ lâu hơn leakMillis bị báo rò rỉ (0 để tắt)
+    public static final int DB_POOL_MIN = Integer.getInteger("penalty.db.poolMin", 2);
+    public static final int DB_POOL_MAX = Integer.getInteger("penalty.db.poolMax", Math.max(8, CORES * 2));
+    public static final long DB_BORROW_TIMEOUT_MILLIS = Long.getLong("penalty.db.borrowTimeoutMillis", 5000L);
+    public static final long DB_VALIDATE_IDLE_MILLIS = Long.getLong("penalty.db.validateIdleMillis", 1000L);
+    public static final long DB_LEAK_MILLIS = Long.getLong("penalty.db.leakMillis", 30000L);
+    // Số PreparedStatement giữ lại trên mỗi kết nối (LRU), 0 để tắt cache
+    public static final int DB_STATEMENT_CACHE = Integer.getInteger("penalty.db.statementCache", 64);
+
+    // Số thay đổi gần nhất của danh bạ người chơi được giữ lại; client cũ hơn thế nhận lại toàn bộ
+    public static final int USER_DIRECTORY_LOG = Integer.getInteger("penalty.directory.logSize", 4096);
+
+    // Số người tối đa trong một trang kết quả tìm kiếm
+    public static final int SEARCH_PAGE_MAX = Integer.getInteger("penalty.search.pageMax", 50);
+
+    // Số dòng tối đa của một trang bảng xếp hạng (và của get_leaderboard kiểu cũ)
+    public static final int LEADERBOARD_PAGE_MAX = Integer.getInteger("penalty.leaderboard.pageMax", 100);
+
+    // Lịch sử đấu: số trận tối đa mỗi trang, và số trận gửi cho client cũ (không phân trang). Client cũ
+    // gửi get_user_matches/get_match_history không kèm con trỏ chỉ nhận legacyMax trận mới nhất, các trận
+    // cũ hơn bị cắt bớt mà không báo; muốn xem hết phải dùng yêu cầu có con trỏ (*_page)
+    public static final int HISTORY_PAGE_MAX = Integer.getInteger("penalty.history.pageMax", 50);
+    public static final int HISTORY_LEGACY_MAX = Integer.getInteger("penalty.history.legacyMax", 200);
+    // Dung lượng (ước lượng, byte) của bộ đệm lượt sút và trang lịch sử đấu
+    public static final long HISTORY_CACHE_BYTES = Long.getLong("penalty.history.cacheBytes", 32L * 1024 * 1024);
+
+    // Chuyển match_details/matches cũ sang cột mã: số dòng mỗi lô, thời gian nghỉ giữa các lô (ms).
+    // Các cột chuỗi chỉ bị xóa khi chạy với -Dpenalty.storage.dropLegacyColumns=true và mọi dòng đã có mã.
+    public static final int STORAGE_MIGRATION_BATCH = Integer.getInteger("penalty.storage.migrationBatch", 1000);
+    public static final long STORAGE_MIGRATION_PAUSE_MILLIS = Long.getLong("penalty.storage.migrationPauseMillis", 50L);
+    public static final boolean STORAGE_DROP_LEGACY_COLUMNS = Boolean.getBoolean("penalty.storage.dropLegacyColumns");
+
+    // Chu kỳ in thống kê kết nối/bộ nhớ (giây), 0 để tắt
+    public static final int STATS_INTERVAL = Integer.getInteger("penalty.stats.interval", 60);
+
+    private ServerConfig() {
+    }
+
+    // Tham số dòng lệnh đầu tiên (nếu có) được ưu tiên hơn -Dpenalty.mode
+    public static Mode mode(String[] args) {
+        String value = args.length > 0 ? args[0] : System.getProperty("penalty.mode", "blocking");
+        try {
+            return Mode.valueOf(value.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            System.out.println("Chế độ không hợp lệ: " + value + ", dùng BLOCKING.");
+            return Mode.BLOCKING;
+        }
+    }
+}
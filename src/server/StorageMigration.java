@@ -0,0 +1,75 @@
+package server;
+
+import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Chuyển lượt sút và trận đấu cũ (lưu bằng chuỗi) sang các cột mã theo từng lô nhỏ trong lúc server
+// vẫn chạy, nghỉ giữa các lô để không tranh kết nối và I/O với người chơi. Các cột chuỗi chỉ bị xóa khi
+// được bật rõ ràng và không còn dòng nào có giá trị không chuyển được sang mã.
+// Nếu server tắt giữa chừng, lần khởi động sau tiếp tục với những dòng chưa có mã.
+public class StorageMigration {
+    private final DatabaseManager dbManager;
+    private final int batchSize;
+    private final long pauseMillis;
+    private final boolean dropLegacy;
+    private final AtomicLong batches = new AtomicLong();
+    private volatile boolean done;
+
+    public StorageMigration(DatabaseManager dbManager, int batchSize, long pauseMillis, boolean dropLegacy) {
+        this.dbManager = dbManager;
+        this.batchSize = batchSize;
+        this.pauseMillis = pauseMillis;
+        this.dropLegacy = dropLegacy;
+    }
+
+    public void start() {
+        if (!dbManager.hasLegacyColumns()) {
+            done = true;
+            return;
+        }
+        Thread worker = new Thread(this::run, "storage-migration");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    public long getBatches() {
+        return batches.get();
+    }
+
+    public boolean isDone() {
+        return done;
+    }
+
+    private void run() {
+        try {
+            int lastId = 0;
+            while ((lastId = dbManager.migrateKicks(lastId, batchSize)) != 0) {
+                batches.incrementAndGet();
+                Thread.sleep(pauseMillis);
+            }
+            lastId = 0;
+            while ((lastId = dbManager.migrateMatches(lastId, batchSize)) != 0) {
+                batches.incrementAndGet();
+                Thread.sleep(pauseMillis);
+            }
+            System.out.println("Đã chuyển dữ liệu trận đấu cũ sang dạng mã sau " + batches.get() + " lô");
+            if (dropLegacy) {
+                long unmapped = dbManager.countUnmappedLegacyRows();
+                if (unmapped > 0) {
+                    System.out.println("Không xóa các cột chuỗi cũ: còn " + unmapped
+                            + " dòng có giá trị không chuyển được sang mã");
+                } else {
+                    dbManager.dropLegacyColumns();
+                    System.out.println("Đã xóa các cột chuỗi cũ của match_details và matches");
+                }
+            }
+            done = true;
+        } catch (SQLException e) {
+            // Những dòng chưa chuyển vẫn đọc được từ cột chuỗi; lần khởi động sau sẽ làm tiếp
+            System.out.println("Chuyển dữ liệu trận đấu cũ bị dừng");
+            e.printStackTrace();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package server;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+// InputStream được thread reactor đổ dữ liệu vào, để một thread riêng đọc stream Java serialization
+// của client cũ (ObjectInputStream chỉ đọc blocking). Giới hạn số byte chờ để client không đẩy
+// bộ nhớ server lên mãi khi thread đọc chạy chậm.
+public class StreamFeed extends InputStream {
+    private final int maxPending;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition available = lock.newCondition();
+    private final ArrayDeque<byte[]> chunks = new ArrayDeque<>();
+    private int offset;
+    private int pending;
+    private boolean closed;
+
+    public StreamFeed(int maxPending) {
+        this.maxPending = maxPending;
+    }
+
+    // Trả về false nếu đã đóng hoặc vượt giới hạn; người gọi đóng kết nối
+    public boolean feed(byte[] data) {
+        lock.lock();
+        try {
+            if (closed || pending + data.length > maxPending) {
+                return false;
+            }
+            chunks.add(data);
+            pending += data.length;
+            available.signal();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] one = new byte[1];
+        return read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        lock.lock();
+        try {
+            while (chunks.isEmpty()) {
+                if (closed) {
+                    return -1;
+                }
+                available.await();
+            }
+            int copied = 0;
+            while (copied < len && !chunks.isEmpty()) {
+                byte[] head = chunks.peek();
+                int n = Math.min(len - copied, head.length - offset);
+                System.arraycopy(head, offset, b, off + copied, n);
+                copied += n;
+                offset += n;
+                if (offset == head.length) {
+                    chunks.poll();
+                    offset = 0;
+                }
+            }
+            pending -= copied;
+            return copied;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Bị ngắt khi đang chờ dữ liệu", e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int available() {
+        lock.lock();
+        try {
+            return pending;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            closed = true;
+            available.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package server;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Bộ hẹn giờ dùng chung cho cả server (hashed timing wheel): một thread quay bánh xe theo từng tick,
+// các tác vụ đến hạn được chạy trên một pool cố định. Số thread không đổi dù có bao nhiêu trận đấu;
+// độ chính xác là một tick, đủ cho hạn lượt đi và lời mời chơi lại.
+public class TimerWheel {
+    private final long tickNanos;
+    private final List<List<Timeout>> wheel;
+    private final int mask;
+    // Hẹn giờ mới được đưa vào bánh xe bởi thread quay, tránh khóa
+    private final Queue<Timeout> newTimeouts = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pending = new AtomicInteger();
+    private final ExecutorService executor;
+    private final long startNanos = System.nanoTime();
+    private long tick;
+
+    public TimerWheel(long tickMillis, int wheelSize, int threads) {
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMillis);
+        // Làm tròn lên lũy thừa của 2 để lấy vị trí bằng phép AND
+        int size = Integer.highestOneBit(Math.max(1, wheelSize - 1)) << 1;
+        this.wheel = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            wheel.add(new ArrayList<>());
+        }
+        this.mask = size - 1;
+        this.executor = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "timer-task");
+            t.setDaemon(true);
+            return t;
+        });
+        Thread worker = new Thread(this::run, "timer-wheel");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    public Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+        long deadline = System.nanoTime() - startNanos + unit.toNanos(delay);
+        Timeout timeout = new Timeout(task, deadline);
+        pending.incrementAndGet();
+        newTimeouts.add(timeout);
+        return timeout;
+    }
+
+    // Số hẹn giờ chưa đến hạn và chưa bị hủy
+    public int getPendingCount() {
+        return pending.get();
+    }
+
+    private void run() {
+        while (true) {
+            long nextTick = (tick + 1) * tickNanos;
+            long sleepNanos = nextTick - (System.nanoTime() - startNanos);
+            if (sleepNanos > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(sleepNanos);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                continue;
+            }
+            tick++;
+            transferNewTimeouts();
+            List<Timeout> bucket = wheel.get((int) (tick & mask));
+            bucket.removeIf(this::expireIfDue);
+        }
+    }
+
+    private void transferNewTimeouts() {
+        Timeout timeout;
+        while ((timeout = newTimeouts.poll()) != null) {
+            if (timeout.state.get() != Timeout.PENDING) {
+                continue;
+            }
+            long ticks = Math.max(tick, (timeout.deadline + tickNanos - 1) / tickNanos);
+            timeout.remainingRounds = (ticks - tick) / wheel.size();
+            wheel.get((int) (ticks & mask)).add(timeout);
+        }
+    }
+
+    // Trả về true nếu hẹn giờ cần bỏ khỏi ô (đã chạy hoặc đã hủy)
+    private boolean expireIfDue(Timeout timeout) {
+        if (timeout.state.get() != Timeout.PENDING) {
+            return true;
+        }
+        if (timeout.remainingRounds > 0) {
+            timeout.remainingRounds--;
+            return false;
+        }
+        if (timeout.state.compareAndSet(Timeout.PENDING, Timeout.EXPIRED)) {
+            pending.decrementAndGet();
+            executor.execute(() -> {
+                try {
+                    timeout.task.run();
+                } catch (RuntimeException e) {
+                    e.printStackTrace();
+                }
+            });
+        }
+        return true;
+    }
+
+    public class Timeout {
+        private static final int PENDING = 0;
+        private static final int CANCELLED = 1;
+        private static final int EXPIRED = 2;
+
+        private final Runnable task;
+        private final long deadline;
+        private final AtomicInteger state = new AtomicInteger(PENDING);
+        // Số vòng quay còn lại trước khi đến hạn; chỉ thread quay dùng
+        private long remainingRounds;
+
+        private Timeout(Runnable task, long deadline) {
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        // Trả về false nếu tác vụ đã chạy hoặc đã bị hủy trước đó
+        public boolean cancel() {
+            if (state.compareAndSet(PENDING, CANCELLED)) {
+                pending.decrementAndGet();
+                return true;
+            }
+            return false;
+        }
+
+        public boolean isDone() {
+            return state.get() != PENDING;
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package server;
+
+import common.User;
+import javafx.util.Pair;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Chỉ mục tìm người chơi theo tiền tố tên: các tên (chữ thường) được giữ có thứ tự nên tìm tiền tố
+// là một đoạn liên tiếp, O(log n) để tới đầu đoạn cộng số dòng trả về. Người đang online/ingame có
+// chỉ mục riêng để lọc theo trạng thái không phải duyệt qua người offline.
+public class UserSearchIndex {
+    public static final String ALL = "all";
+
+    private final PresenceService presence;
+    // khóa (tên chữ thường + '\0' + id) -> id
+    private final ConcurrentSkipListMap<String, Integer> all = new ConcurrentSkipListMap<>();
+    private final ConcurrentSkipListMap<String, Integer> online = new ConcurrentSkipListMap<>();
+    private final ConcurrentSkipListMap<String, Integer> ingame = new ConcurrentSkipListMap<>();
+    // Cập nhật trạng thái tuần tự để hai thay đổi liên tiếp của cùng người không ghi đè sai thứ tự
+    private final ReentrantLock statusLock = new ReentrantLock();
+
+    public UserSearchIndex(PresenceService presence) {
+        this.presence = presence;
+    }
+
+    public void rebuild(List<User> users) {
+        all.clear();
+        online.clear();
+        ingame.clear();
+        for (User user : users) {
+            add(user);
+        }
+    }
+
+    public void add(User user) {
+        all.put(key(user.getUsername(), user.getId()), user.getId());
+    }
+
+    // Gọi sau khi trạng thái của người chơi đổi; đọc lại trạng thái hiện tại từ PresenceService
+    public void statusChanged(int userId, String username) {
+        String key = key(username, userId);
+        statusLock.lock();
+        try {
+            String status = presence.getStatus(userId);
+            if (PresenceService.ONLINE.equals(status)) {
+                online.put(key, userId);
+                ingame.remove(key);
+            } else if (PresenceService.INGAME.equals(status)) {
+                ingame.put(key, userId);
+                online.remove(key);
+            } else {
+                online.remove(key);
+                ingame.remove(key);
+            }
+        } finally {
+            statusLock.unlock();
+        }
+    }
+
+    public int size() {
+        return all.size();
+    }
+
+    // Id của tối đa limit người có tên bắt đầu bằng prefix (không phân biệt hoa thường), theo thứ tự
+    // tên, đứng sau con trỏ after (khóa cuối của trang trước, null = từ đầu), kèm con trỏ của trang
+    // sau (null nếu đã hết). filter: ALL, PresenceService.ONLINE hoặc PresenceService.INGAME.
+    public Pair<List<Integer>, String> search(String prefix, String filter, String after, int limit) {
+        ConcurrentSkipListMap<String, Integer> index = PresenceService.ONLINE.equals(filter) ? online
+                : PresenceService.INGAME.equals(filter) ? ingame : all;
+        String from = prefix.toLowerCase(Locale.ROOT);
+        // Mọi khóa bắt đầu bằng from đều nhỏ hơn from + '\uffff'
+        String to = from + '\uffff';
+        List<Integer> ids = new ArrayList<>(Math.min(limit, 64));
+        if (after != null && after.compareTo(to) >= 0) {
+            return new Pair<>(ids, null);
+        }
+        NavigableMap<String, Integer> range = after != null && after.compareTo(from) >= 0
+                ? index.subMap(after, false, to, false)
+                : index.subMap(from, true, to, false);
+        String lastKey = null;
+        for (Map.Entry<String, Integer> entry : range.entrySet()) {
+            if (ids.size() == limit) {
+                return new Pair<>(ids, lastKey);
+            }
+            ids.add(entry.getValue());
+            lastKey = entry.getKey();
+        }
+        return new Pair<>(ids, null);
+    }
+
+    private static String key(String username, int userId) {
+        return username.toLowerCase(Locale.ROOT) + '\0' + userId;
+    }
+}
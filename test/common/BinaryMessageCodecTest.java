@@ -0,0 +1,64 @@
+package common;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import org.junit.Test;
+
+public class BinaryMessageCodecTest {
+
+    // Tag T_OBJECT_ARRAY và T_NULL của BinaryMessageCodec
+    private static final int OBJECT_ARRAY = 7;
+    private static final int NULL = 0;
+
+    @Test
+    public void decodesValuesNestedUpToTheLimit() throws IOException {
+        // MAX_DEPTH - 1 mảng lồng nhau, null trong cùng nằm đúng ở mức MAX_DEPTH
+        Object content = null;
+        for (int i = 0; i < BinaryMessageCodec.MAX_DEPTH - 1; i++) {
+            content = new Object[] { content };
+        }
+        BinaryMessageCodec codec = new BinaryMessageCodec();
+        Message decoded = codec.decode(codec.encode(new Message("chat", content)));
+        assertEquals("chat", decoded.getType());
+        assertArrayEquals((Object[]) content, (Object[]) decoded.getContent());
+    }
+
+    @Test
+    public void rejectsValuesNestedPastTheLimit() throws IOException {
+        assertRejected(nestedFrame(BinaryMessageCodec.MAX_DEPTH));
+    }
+
+    // Frame kiểu tấn công: hàng trăm nghìn mảng rỗng lồng nhau phải bị từ chối bằng IOException,
+    // không được làm tràn stack của thread giải mã
+    @Test
+    public void rejectsDeeplyNestedFrameWithoutStackOverflow() throws IOException {
+        assertRejected(nestedFrame(200000));
+    }
+
+    private static void assertRejected(byte[] frame) {
+        try {
+            new BinaryMessageCodec().decode(frame);
+            fail("Frame lồng quá sâu phải bị từ chối");
+        } catch (IOException expected) {
+            // đúng như mong đợi
+        }
+    }
+
+    // Tin nhắn "chat" có nội dung là arrays mảng một phần tử lồng nhau, trong cùng là null
+    private static byte[] nestedFrame(int arrays) throws IOException {
+        byte[] empty = new BinaryMessageCodec().encode(new Message("chat", null));
+        ByteArrayOutputStream frame = new ByteArrayOutputStream();
+        // Bỏ tag T_NULL của nội dung ở cuối frame
+        frame.write(empty, 0, empty.length - 1);
+        for (int i = 0; i < arrays; i++) {
+            frame.write(OBJECT_ARRAY);
+            frame.write(1);
+        }
+        frame.write(NULL);
+        return frame.toByteArray();
+    }
+}
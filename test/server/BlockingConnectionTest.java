@@ -0,0 +1,55 @@
+package server;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import common.Message;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import org.junit.After;
+import org.junit.Test;
+
+public class BlockingConnectionTest {
+
+    private ServerSocket listener;
+    private Socket peer;
+
+    @After
+    public void closeSockets() throws IOException {
+        if (peer != null) {
+            peer.close();
+        }
+        if (listener != null) {
+            listener.close();
+        }
+    }
+
+    // Client không bao giờ đọc: thread ghi kẹt trong write(), hàng đợi gửi đầy. Kết nối phải đóng
+    // hẳn socket thay vì chỉ đánh dấu đã đóng và để thread ghi treo mãi.
+    @Test
+    public void closesSocketWhenPeerNeverReads() throws Exception {
+        listener = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+        peer = new Socket(InetAddress.getLoopbackAddress(), listener.getLocalPort());
+        peer.setReceiveBufferSize(4096);
+        Socket socket = listener.accept();
+        BlockingConnection connection = new BlockingConnection(socket);
+        // Như client cũ đã gửi header stream, để tin nhắn được mã hóa mà client không phải gửi gì
+        connection.codec.useLegacyStream();
+        connection.start(Thread::new);
+
+        long limit = 4L * ServerConfig.OUTBOUND_MAX_BYTES / (64 * 1024) + 1000;
+        for (long i = 0; i < limit && connection.isOpen(); i++) {
+            // Chuỗi mới mỗi lần: stream Java serialization không gửi lại đối tượng đã gửi
+            connection.send(new Message("chat", "x".repeat(64 * 1024)));
+        }
+        assertFalse("Hàng đợi gửi phải tràn khi client không đọc", connection.isOpen());
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!socket.isClosed() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue("Socket phải được đóng khi hàng đợi gửi tràn", socket.isClosed());
+    }
+}